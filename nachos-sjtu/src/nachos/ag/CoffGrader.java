@@ -252,5 +252,10 @@ public class CoffGrader extends BasicTestGrader {
                 outputMatched = false;
 
 		}
+
+		protected void out(byte[] buf, int offset, int length) {
+			for (int i = 0; i < length; i++)
+				out(buf[offset + i] & 0xFF);
+		}
 	}
 }
@@ -18,11 +18,8 @@ public class DiskUtils {
     }
 
     public void readBlock(int blockIdx, int length, byte[] buffer, int offset) {
-        int secIdx = blockIdx * N_SEC_PER_BLOCK;
-
-        for (int i = 0; i < length; ++i)
-            for (int j = 0; j < N_SEC_PER_BLOCK; ++j, ++secIdx, offset += SEC_SIZE)
-                disk.readSector(secIdx, buffer, offset);
+        disk.readSectors(blockIdx * N_SEC_PER_BLOCK, length * N_SEC_PER_BLOCK,
+                buffer, offset);
     }
 
     public void writeBlock(int blockIdx, int length, byte[] buffer) {
@@ -30,11 +27,8 @@ public class DiskUtils {
     }
 
     public void writeBlock(int blockIdx, int count, byte[] buffer, int offset) {
-        int secIdx = blockIdx * N_SEC_PER_BLOCK;
-
-        for (int i = 0; i < count; ++i)
-            for (int j = 0; j < N_SEC_PER_BLOCK; ++j, ++secIdx, offset += SEC_SIZE)
-                disk.writeSector(secIdx, buffer, offset);
+        disk.writeSectors(blockIdx * N_SEC_PER_BLOCK, count * N_SEC_PER_BLOCK,
+                buffer, offset);
     }
 
     private DiskUtils() {
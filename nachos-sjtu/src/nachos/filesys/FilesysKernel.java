@@ -1,6 +1,7 @@
 package nachos.filesys;
 
 import nachos.machine.Config;
+import nachos.machine.Machine;
 import nachos.vm.VMKernel;
 
 /**
@@ -19,9 +20,16 @@ public class FilesysKernel extends VMKernel {
 
     public void initialize (String[] args) {
         super.initialize(args);
-        boolean format = Config.getBoolean("FilesysKernel.format");
+        // a restored disk already holds the file system and the stub files
+        boolean format = Config.getBoolean("FilesysKernel.format")
+                && !Machine.restoredFromSnapshot();
         fileSystem = realFileSystem = new RealFileSystem();
         realFileSystem.init(format);
+
+        if (Machine.snapshotRequested()) {
+            realFileSystem.sync();
+            Machine.snapshot();
+        }
     }
 
     public void selfTest () {
@@ -54,6 +54,16 @@ public class RealFileSystem implements FileSystem {
 		freeList = FreeList.create(FREE_LIST_BLOCK, FS_HEAD);
 	}
 
+	/**
+	 * write back every cached inode and the free list, leaving the file system
+	 * open
+	 */
+	public void sync() {
+		for (FileCache cache : caches.values())
+			cache.save();
+		freeList.save();
+	}
+
 	public void finish() {
 		for (FileCache cache : caches.values())
 			cache.save();
@@ -0,0 +1,322 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a batch of Nachos jobs in one JVM, several at a time. Each job is a
+ * separate machine, loaded by a class loader of its own so that it has its
+ * own copy of every static field, and run by <tt>Machine.runHosted()</tt>.
+ * 
+ * <p>
+ * The job file has one job per line: the command line arguments for
+ * <tt>Machine</tt>, optionally followed by <tt>&lt; file</tt> to give the job
+ * console input. Blank lines and lines starting with <tt>#</tt> are ignored.
+ * Each job's console output is collected, and printed in job order along
+ * with its exit status once the job is done.
+ * 
+ * <p>
+ * All jobs share the working directory, so jobs that use a disk must name
+ * different disk files (<tt>Machine.diskFilename</tt>), and VM jobs that swap
+ * to the stub file system need different test directories
+ * (<tt>FileSystem.testDirectory</tt>). Hosted machines run without the
+ * security manager, since a JVM can only have one.
+ * 
+ * <p>
+ * Run with
+ * <tt>java nachos.machine.BatchLauncher [-j &lt;jobs at once&gt;] &lt;job file&gt;</tt>
+ * . By default, as many jobs run at once as there are processors.
+ */
+public final class BatchLauncher {
+	private BatchLauncher() {
+	}
+
+	/**
+	 * Run the batch.
+	 * 
+	 * @param args
+	 *            the command line arguments.
+	 */
+	public static void main(String[] args) throws Exception {
+		int numRunners = Runtime.getRuntime().availableProcessors();
+		String jobFileName = null;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-j") && i + 1 < args.length)
+				numRunners = Integer.parseInt(args[++i]);
+			else
+				jobFileName = args[i];
+		}
+
+		if (jobFileName == null || numRunners < 1) {
+			System.err.println("usage: java nachos.machine.BatchLauncher "
+					+ "[-j <jobs at once>] <job file>");
+			System.exit(1);
+		}
+
+		List<Job> jobs = readJobs(jobFileName);
+		URL[] classPath = classPath();
+
+		// from now on, each thread writes to the job it belongs to
+		PrintStream out = System.out;
+		System.setIn(new JobInputStream(System.in));
+		System.setOut(new PrintStream(new JobOutputStream(out), true));
+		System.setErr(new PrintStream(new JobOutputStream(System.err), true));
+
+		ExecutorService runners = Executors.newFixedThreadPool(numRunners);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for (Job job : jobs)
+			results.add(runners.submit(new Runner(job, classPath)));
+
+		int numFailed = 0;
+		long start = System.currentTimeMillis();
+
+		for (int i = 0; i < jobs.size(); i++) {
+			results.get(i).get();
+
+			Job job = jobs.get(i);
+			out.print("== job " + (i + 1) + ": " + job.line + "\n");
+			job.output.writeTo(out);
+			if (job.error != null) {
+				out.print("\n== job " + (i + 1) + " failed: " + job.error
+						+ "\n");
+				numFailed++;
+			} else {
+				out.print("\n== job " + (i + 1) + " exited with status "
+						+ job.exitStatus + " after " + job.millis + " ms\n");
+			}
+		}
+
+		runners.shutdown();
+
+		out.print("== " + jobs.size() + " jobs, " + numFailed + " failed, "
+				+ (System.currentTimeMillis() - start) + " ms\n");
+		System.exit(numFailed == 0 ? 0 : 1);
+	}
+
+	private static List<Job> readJobs(String fileName) throws IOException {
+		List<Job> jobs = new ArrayList<Job>();
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#"))
+					continue;
+
+				Job job = new Job(line);
+
+				String command = line;
+				int redirect = line.indexOf('<');
+				if (redirect != -1) {
+					command = line.substring(0, redirect);
+					job.input = readFile(line.substring(redirect + 1).trim());
+				}
+
+				StringTokenizer tokens = new StringTokenizer(command);
+				job.args = new String[tokens.countTokens()];
+				for (int i = 0; i < job.args.length; i++)
+					job.args[i] = tokens.nextToken();
+
+				jobs.add(job);
+			}
+		} finally {
+			reader.close();
+		}
+
+		return jobs;
+	}
+
+	private static byte[] readFile(String fileName) throws IOException {
+		InputStream in = new FileInputStream(fileName);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try {
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				bytes.write(buffer, 0, n);
+		} finally {
+			in.close();
+		}
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Return the class path that this class was loaded from, for the job class
+	 * loaders to load Nachos from.
+	 */
+	private static URL[] classPath() throws IOException {
+		StringTokenizer entries = new StringTokenizer(
+				System.getProperty("java.class.path"), File.pathSeparator);
+
+		URL[] urls = new URL[entries.countTokens()];
+		for (int i = 0; i < urls.length; i++)
+			urls[i] = new File(entries.nextToken()).toURI().toURL();
+
+		return urls;
+	}
+
+	private static class Job {
+		Job(String line) {
+			this.line = line;
+		}
+
+		String line;
+		String[] args;
+		byte[] input = new byte[0];
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		InputStream console;
+
+		int exitStatus;
+		Throwable error = null;
+		long millis;
+	}
+
+	/**
+	 * Runs one job in the thread pool. The thread becomes the job's first TCB,
+	 * and every Java thread the job creates inherits the job.
+	 */
+	private static class Runner implements Runnable {
+		Runner(Job job, URL[] classPath) {
+			this.job = job;
+			this.classPath = classPath;
+		}
+
+		public void run() {
+			job.console = new ByteArrayInputStream(job.input);
+			currentJob.set(job);
+
+			long start = System.currentTimeMillis();
+
+			try {
+				ClassLoader loader = new JobClassLoader(classPath);
+				Class<?> machine = loader.loadClass("nachos.machine.Machine");
+				job.exitStatus = (Integer) machine.getMethod("runHosted",
+						String[].class).invoke(null, (Object) job.args);
+			} catch (Throwable e) {
+				job.error = e.getCause() != null ? e.getCause() : e;
+			} finally {
+				job.millis = System.currentTimeMillis() - start;
+				currentJob.remove();
+			}
+		}
+
+		private Job job;
+		private URL[] classPath;
+	}
+
+	/**
+	 * Loads Nachos classes itself rather than asking its parent first, so that
+	 * each job gets its own copy of them. Everything else is shared, as is
+	 * <tt>NetworkFabric</tt>, which connects the jobs' network links.
+	 */
+	private static class JobClassLoader extends URLClassLoader {
+		JobClassLoader(URL[] classPath) {
+			super(classPath, BatchLauncher.class.getClassLoader());
+		}
+
+		private static final String sharedClass = "nachos.machine.NetworkFabric";
+
+		protected Class<?> loadClass(String name, boolean resolve)
+				throws ClassNotFoundException {
+			if (!name.startsWith("nachos.") || name.equals(sharedClass))
+				return super.loadClass(name, resolve);
+
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> c = findLoadedClass(name);
+				if (c == null)
+					c = findClass(name);
+				if (resolve)
+					resolveClass(c);
+				return c;
+			}
+		}
+	}
+
+	/**
+	 * Writes to the output of the current thread's job, or to the launcher's
+	 * own stream outside any job.
+	 */
+	private static class JobOutputStream extends OutputStream {
+		JobOutputStream(OutputStream fallback) {
+			this.fallback = fallback;
+		}
+
+		public void write(int b) throws IOException {
+			Job job = currentJob.get();
+			if (job != null)
+				job.output.write(b);
+			else
+				fallback.write(b);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			Job job = currentJob.get();
+			if (job != null)
+				job.output.write(b, off, len);
+			else
+				fallback.write(b, off, len);
+		}
+
+		public void flush() throws IOException {
+			if (currentJob.get() == null)
+				fallback.flush();
+		}
+
+		private OutputStream fallback;
+	}
+
+	/**
+	 * Reads the console input of the current thread's job, or the launcher's
+	 * own stream outside any job.
+	 */
+	private static class JobInputStream extends InputStream {
+		JobInputStream(InputStream fallback) {
+			this.fallback = fallback;
+		}
+
+		public int read() throws IOException {
+			Job job = currentJob.get();
+			return (job != null) ? job.console.read() : fallback.read();
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			Job job = currentJob.get();
+			return (job != null) ? job.console.read(b, off, len) : fallback
+					.read(b, off, len);
+		}
+
+		public int available() throws IOException {
+			Job job = currentJob.get();
+			return (job != null) ? job.console.available() : fallback
+					.available();
+		}
+
+		private InputStream fallback;
+	}
+
+	/** The job that the current thread belongs to, inherited by new threads. */
+	private static final InheritableThreadLocal<Job> currentJob = new InheritableThreadLocal<Job>();
+}
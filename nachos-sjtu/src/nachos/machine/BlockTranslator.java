@@ -0,0 +1,672 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Translates basic blocks of MIPS code into JVM classes, so that the JVM can
+ * compile frequently executed guest code to native code.
+ * 
+ * <p>
+ * Only the instructions that also have specialized threaded handlers are
+ * translated: ALU operations that cannot overflow, loads, stores, and branches
+ * and jumps that do not link. A block is translated up to its first other
+ * instruction; the processor interprets the rest.
+ * 
+ * <p>
+ * The generated code keeps the semantics of <tt>Processor.Instruction</tt>:
+ * operands are read before a pending delayed load completes, and the PC and
+ * nextPC registers are written before every memory access, so an exception
+ * leaves the processor in the same state as the interpreter would. Generated
+ * classes are version 49 (Java 5) class files, which need no stack map
+ * frames.
+ * 
+ * <p>
+ * The blocks of each physical page are defined by a class loader of their
+ * own, which is dropped when the page's blocks are discarded, so that the JVM
+ * can unload their classes. At most one generation of classes per physical
+ * page is therefore live at a time.
+ */
+final class BlockTranslator {
+	/**
+	 * Allocate a new translator for the specified processor.
+	 * 
+	 * @param processor
+	 *            the processor that translated blocks will run on.
+	 */
+	BlockTranslator(Processor processor) {
+		this.processor = processor;
+
+		loaders = new Loader[processor.getNumPhysPages()];
+	}
+
+	/**
+	 * Test whether an instruction can be translated.
+	 * 
+	 * @param d
+	 *            the decoded instruction.
+	 * @return <tt>true</tt> if the instruction can be translated.
+	 */
+	static boolean canTranslate(Processor.Decoded d) {
+		switch (d.operation) {
+		case Processor.Mips.ADD:
+		case Processor.Mips.SUB:
+		case Processor.Mips.SLL:
+		case Processor.Mips.SRA:
+		case Processor.Mips.SRL:
+		case Processor.Mips.SLT:
+		case Processor.Mips.AND:
+		case Processor.Mips.OR:
+		case Processor.Mips.NOR:
+		case Processor.Mips.XOR:
+		case Processor.Mips.LUI:
+			return !Lib.test(Processor.Mips.OVERFLOW, d.flags);
+
+		case Processor.Mips.LOAD:
+		case Processor.Mips.STORE:
+			return true;
+
+		case Processor.Mips.BEQ:
+		case Processor.Mips.BNE:
+		case Processor.Mips.BLEZ:
+		case Processor.Mips.BGTZ:
+		case Processor.Mips.BLTZ:
+		case Processor.Mips.BGEZ:
+		case Processor.Mips.JUMP:
+			return !Lib.test(Processor.Mips.LINK, d.flags);
+
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Translate the longest translatable prefix of a basic block.
+	 * 
+	 * @param block
+	 *            the decoded instructions of the block.
+	 * @param vaddr
+	 *            the virtual address of the first instruction.
+	 * @param ppn
+	 *            the physical page that holds the block.
+	 * @return the translated block, or <tt>null</tt> if the first instruction
+	 *         cannot be translated.
+	 */
+	TranslatedBlock translate(Processor.Decoded[] block, int vaddr, int ppn) {
+		int length = 0;
+		while (length < block.length && canTranslate(block[length])) {
+			length++;
+
+			if (Lib.test(Processor.Mips.BRANCH, block[length - 1].flags))
+				break;
+		}
+
+		if (length == 0)
+			return null;
+
+		Loader loader = loaders[ppn];
+		if (loader == null) {
+			loader = new Loader(TranslatedBlock.class.getClassLoader());
+			loaders[ppn] = loader;
+		}
+
+		String name = "nachos.machine.jit.Block" + (loader.numDefined++);
+
+		Lib.debug(dbgTranslate, "translating " + length
+				+ " instructions at 0x" + Lib.toHexString(vaddr) + " as "
+				+ name);
+
+		ClassWriter cw = new ClassWriter(name.replace('.', '/'));
+		generate(cw.code, block, length, vaddr);
+
+		TranslatedBlock translation;
+		try {
+			translation = (TranslatedBlock) loader.define(name, cw.toBytes())
+					.getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			Lib.assertNotReached("could not load translated block: " + e);
+			return null;
+		}
+
+		translation.processor = processor;
+		translation.vaddr = vaddr;
+		translation.length = length;
+
+		return translation;
+	}
+
+	/**
+	 * Forget the translations of the blocks in a physical page, so that their
+	 * classes can be unloaded once no block refers to them. Called when the
+	 * processor discards the page's blocks.
+	 * 
+	 * @param ppn
+	 *            the physical page.
+	 */
+	void discardPage(int ppn) {
+		loaders[ppn] = null;
+	}
+
+	private void generate(Code c, Processor.Decoded[] block, int length,
+			int vaddr) {
+		// a load may still be in progress when the block is entered
+		boolean pendingLoad = true;
+
+		for (int i = 0; i < length; i++) {
+			Processor.Decoded d = block[i];
+			int pc = vaddr + i * 4;
+
+			switch (d.operation) {
+			case Processor.Mips.LOAD:
+				setPC(c, pc);
+				c.op(ALOAD_0);
+				c.readRegister(d.rs);
+				c.pushInt(d.imm);
+				c.op(IADD);
+				c.pushInt(d.size);
+				c.pushInt(Lib.test(Processor.Mips.UNSIGNED, d.flags) ? 0 : 1);
+				c.invoke(INVOKEVIRTUAL, "load", "(IIZ)I");
+				c.op(ISTORE_2);
+
+				c.op(ALOAD_0);
+				c.pushInt(d.dstReg);
+				c.op(ILOAD_2);
+				c.invoke(INVOKEVIRTUAL, "delayedLoad", "(II)V");
+
+				pendingLoad = true;
+				break;
+
+			case Processor.Mips.STORE:
+				setPC(c, pc);
+				c.op(ALOAD_0);
+				c.readRegister(d.rs);
+				c.pushInt(d.imm);
+				c.op(IADD);
+				c.pushInt(d.size);
+				c.readRegister(d.rt);
+				c.invoke(INVOKEVIRTUAL, "store", "(III)V");
+
+				if (pendingLoad)
+					finishLoad(c);
+				pendingLoad = false;
+
+				// stop if the store changed the code being executed
+				int valid = c.newLabel();
+				c.op(ALOAD_0);
+				c.invoke(INVOKEVIRTUAL, "isValid", "()Z");
+				c.jump(IFNE, valid);
+				setPC(c, pc + 4);
+				c.pushInt(i + 1);
+				c.op(IRETURN);
+				c.mark(valid);
+				break;
+
+			case Processor.Mips.BEQ:
+			case Processor.Mips.BNE:
+			case Processor.Mips.BLEZ:
+			case Processor.Mips.BGTZ:
+			case Processor.Mips.BLTZ:
+			case Processor.Mips.BGEZ:
+			case Processor.Mips.JUMP:
+				generateBranch(c, d, pc);
+
+				if (pendingLoad)
+					finishLoad(c);
+
+				c.op(ALOAD_1);
+				c.pushInt(Processor.regPC);
+				c.pushInt(pc + 4);
+				c.op(IASTORE);
+				c.op(ALOAD_1);
+				c.pushInt(Processor.regNextPC);
+				c.op(ILOAD_2);
+				c.op(IASTORE);
+				c.pushInt(i + 1);
+				c.op(IRETURN);
+
+				Lib.assertTrue(i == length - 1);
+				return;
+
+			default:
+				if (d.dstReg != 0) {
+					generateAlu(c, d);
+					c.op(ISTORE_2);
+				}
+
+				if (pendingLoad)
+					finishLoad(c);
+				pendingLoad = false;
+
+				if (d.dstReg != 0) {
+					c.op(ALOAD_1);
+					c.pushInt(d.dstReg);
+					c.op(ILOAD_2);
+					c.op(IASTORE);
+				}
+				break;
+			}
+		}
+
+		setPC(c, vaddr + length * 4);
+		c.pushInt(length);
+		c.op(IRETURN);
+	}
+
+	/**
+	 * Generate code that leaves the result of an ALU instruction on the stack,
+	 * computed exactly as <tt>Instruction.execute()</tt> does with its
+	 * 64-bit operands.
+	 */
+	private void generateAlu(Code c, Processor.Decoded d) {
+		boolean unsigned = Lib.test(Processor.Mips.UNSIGNED, d.flags);
+
+		if (d.operation == Processor.Mips.LUI) {
+			c.pushInt(d.imm << 16);
+			return;
+		}
+
+		// shifts take src2 first
+		if (d.operation == Processor.Mips.SLL
+				|| d.operation == Processor.Mips.SRA
+				|| d.operation == Processor.Mips.SRL) {
+			pushSource2(c, d);
+			pushSource1(c, d);
+			c.pushInt(0x1F);
+			c.op(IAND);
+
+			if (d.operation == Processor.Mips.SLL)
+				c.op(ISHL);
+			else
+				// the interpreter shifts the sign-extended 64-bit operand,
+				// so the low 32 bits of SRL match an arithmetic shift
+				c.op(ISHR);
+			return;
+		}
+
+		pushSource1(c, d);
+		if (unsigned && d.operation == Processor.Mips.SLT) {
+			c.pushInt(Integer.MIN_VALUE);
+			c.op(IXOR);
+		}
+		pushSource2(c, d);
+		if (unsigned && d.operation == Processor.Mips.SLT) {
+			c.pushInt(Integer.MIN_VALUE);
+			c.op(IXOR);
+		}
+
+		switch (d.operation) {
+		case Processor.Mips.ADD:
+			c.op(IADD);
+			break;
+		case Processor.Mips.SUB:
+			c.op(ISUB);
+			break;
+		case Processor.Mips.AND:
+			c.op(IAND);
+			break;
+		case Processor.Mips.OR:
+			c.op(IOR);
+			break;
+		case Processor.Mips.XOR:
+			c.op(IXOR);
+			break;
+		case Processor.Mips.NOR:
+			c.op(IOR);
+			c.op(ICONST_M1);
+			c.op(IXOR);
+			break;
+		case Processor.Mips.SLT:
+			int less = c.newLabel(), done = c.newLabel();
+			c.jump(IF_ICMPLT, less);
+			c.op(ICONST_0);
+			c.jump(GOTO, done);
+			c.mark(less);
+			c.op(ICONST_1);
+			c.mark(done);
+			break;
+		default:
+			Lib.assertNotReached();
+		}
+	}
+
+	/**
+	 * Generate code that leaves the next value of the nextPC register in local
+	 * variable 2.
+	 */
+	private void generateBranch(Code c, Processor.Decoded d, int pc) {
+		int target;
+		if (d.format == Processor.Mips.IFMT)
+			target = pc + 4 + d.branchOffset;
+		else
+			target = ((pc + 4) & 0xF0000000) | (d.target << 2);
+
+		if (d.operation == Processor.Mips.JUMP) {
+			if (d.format == Processor.Mips.RFMT)
+				c.readRegister(d.rs);
+			else
+				c.pushInt(target);
+			c.op(ISTORE_2);
+			return;
+		}
+
+		int taken = c.newLabel(), done = c.newLabel();
+
+		c.readRegister(d.rs);
+		switch (d.operation) {
+		case Processor.Mips.BEQ:
+			c.readRegister(d.rt);
+			c.jump(IF_ICMPEQ, taken);
+			break;
+		case Processor.Mips.BNE:
+			c.readRegister(d.rt);
+			c.jump(IF_ICMPNE, taken);
+			break;
+		case Processor.Mips.BLEZ:
+			c.jump(IFLE, taken);
+			break;
+		case Processor.Mips.BGTZ:
+			c.jump(IFGT, taken);
+			break;
+		case Processor.Mips.BLTZ:
+			c.jump(IFLT, taken);
+			break;
+		case Processor.Mips.BGEZ:
+			c.jump(IFGE, taken);
+			break;
+		default:
+			Lib.assertNotReached();
+		}
+
+		c.pushInt(pc + 8);
+		c.op(ISTORE_2);
+		c.jump(GOTO, done);
+		c.mark(taken);
+		c.pushInt(target);
+		c.op(ISTORE_2);
+		c.mark(done);
+	}
+
+	private void pushSource1(Code c, Processor.Decoded d) {
+		if (Lib.test(Processor.Mips.SRC1SH, d.flags))
+			c.pushInt(d.sh);
+		else
+			c.readRegister(d.rs);
+	}
+
+	private void pushSource2(Code c, Processor.Decoded d) {
+		if (Lib.test(Processor.Mips.SRC2IMM, d.flags))
+			c.pushInt(d.imm);
+		else
+			c.readRegister(d.rt);
+	}
+
+	private void setPC(Code c, int pc) {
+		c.op(ALOAD_1);
+		c.pushInt(Processor.regPC);
+		c.pushInt(pc);
+		c.op(IASTORE);
+		c.op(ALOAD_1);
+		c.pushInt(Processor.regNextPC);
+		c.pushInt(pc + 4);
+		c.op(IASTORE);
+	}
+
+	private void finishLoad(Code c) {
+		c.op(ALOAD_0);
+		c.invoke(INVOKEVIRTUAL, "finishLoad", "()V");
+	}
+
+	/**
+	 * The bytecode of the <tt>run()</tt> method being generated. Local 0 is
+	 * <tt>this</tt>, local 1 is the register array and local 2 is scratch.
+	 */
+	private static class Code {
+		Code(ClassWriter cw) {
+			this.cw = cw;
+		}
+
+		void op(int opcode) {
+			bytes.write(opcode);
+		}
+
+		void pushInt(int value) {
+			if (value >= -1 && value <= 5) {
+				op(ICONST_0 + value);
+			} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				op(BIPUSH);
+				op(value);
+			} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				op(SIPUSH);
+				u2(value);
+			} else {
+				op(LDC_W);
+				u2(cw.constInteger(value));
+			}
+		}
+
+		void readRegister(int number) {
+			op(ALOAD_1);
+			pushInt(number);
+			op(IALOAD);
+		}
+
+		void invoke(int opcode, String name, String descriptor) {
+			op(opcode);
+			u2(cw.constMethod(superName, name, descriptor));
+		}
+
+		int newLabel() {
+			labels.add(-1);
+			return labels.size() - 1;
+		}
+
+		void mark(int label) {
+			labels.set(label, bytes.size());
+		}
+
+		void jump(int opcode, int label) {
+			fixups.add(new int[] { bytes.size(), label });
+			op(opcode);
+			u2(0);
+		}
+
+		byte[] toBytes() {
+			byte[] code = bytes.toByteArray();
+
+			for (int[] fixup : fixups) {
+				int at = fixup[0];
+				int offset = labels.get(fixup[1]) - at;
+				Lib.assertTrue(offset >= Short.MIN_VALUE
+						&& offset <= Short.MAX_VALUE);
+				code[at + 1] = (byte) (offset >> 8);
+				code[at + 2] = (byte) offset;
+			}
+
+			return code;
+		}
+
+		private void u2(int value) {
+			op(value >> 8);
+			op(value);
+		}
+
+		private ClassWriter cw;
+		private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private ArrayList<Integer> labels = new ArrayList<Integer>();
+		private ArrayList<int[]> fixups = new ArrayList<int[]>();
+	}
+
+	/**
+	 * Writes a class with a public no-argument constructor and the
+	 * <tt>run()</tt> method held in <tt>code</tt>.
+	 */
+	private static class ClassWriter {
+		ClassWriter(String name) {
+			thisClass = constClass(name);
+			superClass = constClass(superName);
+			code = new Code(this);
+		}
+
+		int constInteger(int value) {
+			return constant("I" + value, 3, value);
+		}
+
+		int constMethod(String owner, String name, String descriptor) {
+			int nameAndType = constant("T" + name + descriptor, 12,
+					constUtf8(name), constUtf8(descriptor));
+			return constant("M" + owner + "." + name + descriptor, 10,
+					constClass(owner), nameAndType);
+		}
+
+		private int constClass(String name) {
+			return constant("C" + name, 7, constUtf8(name));
+		}
+
+		private int constUtf8(String value) {
+			Integer index = constants.get("U" + value);
+			if (index != null)
+				return index;
+
+			try {
+				pool.writeByte(1);
+				pool.writeUTF(value);
+			} catch (IOException e) {
+				Lib.assertNotReached();
+			}
+
+			constants.put("U" + value, numConstants);
+			return numConstants++;
+		}
+
+		/**
+		 * Add a constant made of a tag and either one 4-byte or several 2-byte
+		 * operands, unless an identical one is already in the pool.
+		 */
+		private int constant(String key, int tag, int... operands) {
+			Integer index = constants.get(key);
+			if (index != null)
+				return index;
+
+			try {
+				pool.writeByte(tag);
+				for (int operand : operands) {
+					if (tag == 3)
+						pool.writeInt(operand);
+					else
+						pool.writeShort(operand);
+				}
+			} catch (IOException e) {
+				Lib.assertNotReached();
+			}
+
+			constants.put(key, numConstants);
+			return numConstants++;
+		}
+
+		byte[] toBytes() {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+
+			try {
+				// the constants used below must be in the pool before it is
+				// written
+				int init = constMethod(superName, "<init>", "()V");
+				int initName = constUtf8("<init>"), voidType = constUtf8("()V");
+				int runName = constUtf8("run"), runType = constUtf8("([I)I");
+				int codeName = constUtf8("Code");
+				byte[] runCode = code.toBytes();
+
+				out.writeInt(0xCAFEBABE);
+				out.writeShort(0);
+				out.writeShort(49);
+				out.writeShort(numConstants);
+				out.write(poolBytes.toByteArray());
+				out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+				out.writeShort(thisClass);
+				out.writeShort(superClass);
+				out.writeShort(0); // interfaces
+				out.writeShort(0); // fields
+				out.writeShort(2); // methods
+
+				byte[] initCode = { (byte) ALOAD_0, (byte) INVOKESPECIAL,
+						(byte) (init >> 8), (byte) init, (byte) RETURN };
+				writeMethod(out, initName, voidType, codeName, 1, 1, initCode);
+				writeMethod(out, runName, runType, codeName, maxStack, 3,
+						runCode);
+
+				out.writeShort(0); // attributes
+			} catch (IOException e) {
+				Lib.assertNotReached();
+			}
+
+			return bytes.toByteArray();
+		}
+
+		private void writeMethod(DataOutputStream out, int name, int type,
+				int codeName, int maxStack, int maxLocals, byte[] code)
+				throws IOException {
+			out.writeShort(ACC_PUBLIC);
+			out.writeShort(name);
+			out.writeShort(type);
+			out.writeShort(1); // attributes
+			out.writeShort(codeName);
+			out.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(code.length);
+			out.write(code);
+			out.writeShort(0); // exception table
+			out.writeShort(0); // attributes
+		}
+
+		final Code code;
+
+		private int thisClass, superClass;
+		private HashMap<String, Integer> constants = new HashMap<String, Integer>();
+		private int numConstants = 1;
+		private ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+		private DataOutputStream pool = new DataOutputStream(poolBytes);
+
+		/** Enough for the deepest sequence generated, a store. */
+		private static final int maxStack = 8;
+	}
+
+	private static class Loader extends ClassLoader {
+		Loader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+
+		/** The number of classes defined, for naming the next one. */
+		int numDefined = 0;
+	}
+
+	private Processor processor;
+	/** The class loader of each physical page, or <tt>null</tt>. */
+	private Loader[] loaders;
+
+	private static final String superName = "nachos/machine/TranslatedBlock";
+
+	private static final char dbgTranslate = 'j';
+
+	private static final int ACC_PUBLIC = 0x0001, ACC_FINAL = 0x0010,
+			ACC_SUPER = 0x0020;
+
+	private static final int ICONST_M1 = 0x02, ICONST_0 = 0x03,
+			ICONST_1 = 0x04, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13,
+			ILOAD_2 = 0x1c, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, IALOAD = 0x2e,
+			ISTORE_2 = 0x3d, IASTORE = 0x4f, IADD = 0x60, ISUB = 0x64,
+			ISHL = 0x78, ISHR = 0x7a, IAND = 0x7e, IOR = 0x80, IXOR = 0x82,
+			IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e,
+			IFNE = 0x9a, IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0,
+			IF_ICMPLT = 0xa1, GOTO = 0xa7, IRETURN = 0xac, RETURN = 0xb1,
+			INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7;
+}
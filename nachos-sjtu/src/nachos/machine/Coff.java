@@ -3,6 +3,9 @@
 package nachos.machine;
 
 import java.io.EOFException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * A COFF (common object file format) loader.
@@ -34,6 +37,10 @@ public class Coff {
 	 * complete. Do not supply a file backed by a simulated cache (the primary
 	 * purpose of this restriction is to prevent sections from being loaded
 	 * instantaneously while handling page faults).
+	 * <li>The section table of a recently loaded executable is cached, keyed
+	 * by its file system, name, length and headers, which include the time it
+	 * was linked. Loading it again reads only the headers, and the section
+	 * contents are always read from the file.
 	 * </ol>
 	 * 
 	 * @param file
@@ -80,8 +87,18 @@ public class Coff {
 
 			int offset = headerLength + optionalHeaderLength;
 
+			// files without a name can't be told apart
+			CacheKey key = (file.getName() != null) ? new CacheKey(file,
+					headers) : null;
+			CoffSection[] cached = (key != null) ? cache().get(key) : null;
+
 			sections = new CoffSection[numSections];
 			for (int s = 0; s < numSections; s++) {
+				if (cached != null) {
+					sections[s] = new CoffSection(cached[s], file, this);
+					continue;
+				}
+
 				int sectionEntryOffset = offset + s * CoffSection.headerLength;
 				try {
 					sections[s] = new CoffSection(file, this,
@@ -91,9 +108,78 @@ public class Coff {
 					throw e;
 				}
 			}
+
+			if (cached != null)
+				Lib.debug(dbgCoff, "\tusing cached section table");
+			else if (key != null && cacheSize > 0)
+				cache.put(key, tableOf(sections));
 		}
 	}
 
+	/**
+	 * Copy sections for the cache, without their file and loader, so that the
+	 * cache does not keep a closed executable reachable.
+	 */
+	private static CoffSection[] tableOf(CoffSection[] sections) {
+		CoffSection[] table = new CoffSection[sections.length];
+		for (int s = 0; s < sections.length; s++)
+			table[s] = new CoffSection(sections[s], null, null);
+
+		return table;
+	}
+
+	/**
+	 * Return the cache of section tables, creating it on first use.
+	 */
+	@SuppressWarnings("serial")
+	private static Map<CacheKey, CoffSection[]> cache() {
+		if (cache == null) {
+			cacheSize = Config.getInteger("Coff.cacheSize", 16);
+
+			// least recently used first
+			cache = new LinkedHashMap<CacheKey, CoffSection[]>(16, 0.75f,
+					true) {
+				protected boolean removeEldestEntry(
+						Map.Entry<CacheKey, CoffSection[]> eldest) {
+					return size() > cacheSize;
+				}
+			};
+		}
+
+		return cache;
+	}
+
+	/**
+	 * Identifies an executable in the cache of section tables.
+	 */
+	private static class CacheKey {
+		CacheKey(OpenFile file, byte[] headers) {
+			fileSystem = file.getFileSystem();
+			name = file.getName();
+			length = file.length();
+			this.headers = headers;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof CacheKey))
+				return false;
+
+			CacheKey key = (CacheKey) o;
+			return fileSystem == key.fileSystem && name.equals(key.name)
+					&& length == key.length
+					&& Arrays.equals(headers, key.headers);
+		}
+
+		public int hashCode() {
+			return name.hashCode() ^ Arrays.hashCode(headers);
+		}
+
+		private FileSystem fileSystem;
+		private String name;
+		private int length;
+		private byte[] headers;
+	}
+
 	/**
 	 * Return the number of sections in the executable.
 	 * 
@@ -118,6 +204,15 @@ public class Coff {
 		return sections[sectionNumber];
 	}
 
+	/**
+	 * Return the name of the executable file, for reports.
+	 * 
+	 * @return the name of the file, or <tt>"?"</tt> if it is not known.
+	 */
+	String getFileName() {
+		return (file != null) ? file.getName() : "?";
+	}
+
 	/**
 	 * Return the program entry point. This is the value that to which the PC
 	 * register should be initialized to before running the program.
@@ -150,5 +245,10 @@ public class Coff {
 	private static final int headerLength = 20;
 	private static final int aoutHeaderLength = 28;
 
+	/** The most section tables cached, from <tt>Coff.cacheSize</tt>. */
+	private static int cacheSize;
+	/** Section tables of recently loaded executables. */
+	private static Map<CacheKey, CoffSection[]> cache = null;
+
 	private static final char dbgCoff = 'c';
 }
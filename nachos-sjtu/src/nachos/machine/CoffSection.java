@@ -3,7 +3,6 @@
 package nachos.machine;
 
 import java.io.EOFException;
-import java.util.Arrays;
 
 /**
  * A <tt>CoffSection</tt> manages a single section within a COFF executable.
@@ -117,6 +116,32 @@ public class CoffSection {
 		firstVPN = vaddr / Processor.pageSize;
 	}
 
+	/**
+	 * Copy a COFF section loaded earlier from the same executable, without
+	 * reading its header again.
+	 * 
+	 * @param section
+	 *            the section to copy.
+	 * @param file
+	 *            the file containing the executable, or <tt>null</tt> for a
+	 *            copy that is only kept for its header fields.
+	 * @param coff
+	 *            the COFF object to which the copy belongs, or <tt>null</tt>.
+	 */
+	CoffSection(CoffSection section, OpenFile file, Coff coff) {
+		this.file = file;
+		this.coff = coff;
+
+		name = section.name;
+		executable = section.executable;
+		readOnly = section.readOnly;
+		initialized = section.initialized;
+		numPages = section.numPages;
+		firstVPN = section.firstVPN;
+		size = section.size;
+		contentOffset = section.contentOffset;
+	}
+
 	/**
 	 * Return the COFF object used to load this executable instance.
 	 * 
@@ -189,7 +214,7 @@ public class CoffSection {
 		Lib.assertTrue(ppn >= 0 && ppn < Machine.processor().getNumPhysPages());
 
 		int pageSize = Processor.pageSize;
-		byte[] memory = Machine.processor().getMemory();
+		byte[] page = new byte[pageSize];
 		int paddr = ppn * pageSize;
 		int faddr = contentOffset + spn * pageSize;
 		int initlen;
@@ -213,9 +238,10 @@ public class CoffSection {
 			initlen = pageSize;
 
 		if (initlen > 0)
-			Lib.strictReadFile(file, faddr, memory, paddr, initlen);
+			Lib.strictReadFile(file, faddr, page, 0, initlen);
 
-		Arrays.fill(memory, paddr + initlen, paddr + pageSize, (byte) 0);
+		Machine.processor().writePhysical(paddr, page, 0, pageSize);
+		Machine.processor().pageLoaded(ppn, this, spn);
 	}
 
 	/** The COFF object to which this section belongs. */
@@ -82,18 +82,27 @@ public final class Config {
 			}
 		} catch (Throwable e) {
 			System.err.println("Error loading " + configFile);
-			System.exit(1);
+			exit();
 		}
 	}
 
 	private static void loadError(int line) {
 		System.err.println("Error in " + configFile + " line " + line);
-		System.exit(1);
+		exit();
 	}
 
 	private static void configError(String message) {
 		System.err.println("");
 		System.err.println("Error in " + configFile + ": " + message);
+		exit();
+	}
+
+	/**
+	 * Give up after a configuration error. A machine that shares its JVM with
+	 * others must not end the JVM, so it fails an assertion instead.
+	 */
+	private static void exit() {
+		Lib.assertTrue(!Machine.hosted, "configuration error");
 		System.exit(1);
 	}
 
@@ -32,19 +32,21 @@ package nachos.machine;
 //
 // The physical disk is in fact simulated via operations on a UNIX file.
 //
-// To make life a little more realistic, the simulated time for
-// each operation reflects a "track buffer" -- RAM to store the contents
-// of the current track as the disk head passes by.  The idea is that the
-// disk always transfers to the track buffer, in case that data is requested
-// later on.  This has the benefit of eliminating the need for
-// "skip-sector" scheduling -- a read request which comes in shortly after
-// the head has passed the beginning of the sector can be satisfied more
-// quickly, because its contents are in the track buffer.  Most
-// disks these days now come with a track buffer.
+// To make life a little more realistic, the disk can have a "track
+// buffer" -- RAM to store the contents of a track. When a read misses the
+// buffer, the disk reads the rest of the track into the buffer along with
+// the requested sectors, in case that data is requested later on. A later
+// read from the same track is then satisfied from the buffer, at the cost
+// of transferring the sectors, without a seek or any rotational delay.
+// Writes to the buffered track go to both the buffer and the disk, so the
+// buffer never holds stale data.  Most disks these days now come with a
+// track buffer.
 //
-// The track buffer simulation can be disabled by compiling with -DNOTRACKBUF
+// The track buffer simulation is enabled by setting Disk.trackBuffer.
 
 import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 import nachos.security.Privilege;
 
@@ -58,13 +60,15 @@ import nachos.security.Privilege;
 public class Disk {
 
 	// track buffer support
-	private static final boolean NOTRACKBUF = true;
+	private boolean trackBuffer;
+
+	private int bufferedTrack; // the track in the track buffer, or -1
 
 	// number of bytes per disk sector
 	public static final int SectorSize = 128 * 4;
 
 	// number of sectors per disk track
-	private static final int SectorsPerTrack = 32 * 2;
+	static final int SectorsPerTrack = 32 * 2;
 
 	// number of tracks per disk
 	private static final int NumTracks = 32 * 2;
@@ -76,6 +80,9 @@ public class Disk {
 
 	private RandomAccessFile file;// UNIX file for simulated disk
 
+	private MappedByteBuffer mapped; // the file mapped into memory, if the
+	// mapped backend is used
+
 	private DiskIntHandler dskHandler; // internal interrupt handler
 
 	private Runnable handler; // Interrupt handler, to be invoked
@@ -85,10 +92,6 @@ public class Disk {
 
 	private int lastSector; // The previous disk request
 
-	private int bufferInit; // When the track buffer started
-
-	// being loaded
-
 	private int seek; // times computed by
 
 	private int rotation; // timeToSeek()
@@ -100,6 +103,13 @@ public class Disk {
 
 	private static final int MagicSize = 4;
 
+	// trace events for requests
+	private static final int evtRead = Trace.event('d',
+			"read sector %d, %d sectors, %d ticks");
+
+	private static final int evtWrite = Trace.event('d',
+			"write sector %d, %d sectors, %d ticks");
+
 	public static final int DiskSize = MagicSize + (NumSectors * SectorSize);
 
 	// ----------------------------------------------------------------------
@@ -125,7 +135,8 @@ public class Disk {
 		this.privilege = privilege;
 		handler = callWhenDone;
 		lastSector = 0;
-		bufferInit = 0;
+		trackBuffer = Config.getBoolean("Disk.trackBuffer", false);
+		bufferedTrack = -1;
 
 		dskHandler = new DiskIntHandler(this);
 
@@ -173,6 +184,24 @@ public class Disk {
 			}
 
 		}
+
+		String backend = Config.getString("Disk.backend", "file");
+		Lib.assertTrue(backend.equals("file") || backend.equals("mapped"),
+				"Disk.backend must be file or mapped");
+
+		if (backend.equals("mapped")) {
+			privilege.doPrivileged(new Runnable() {
+				public void run() {
+					try {
+						mapped = file.getChannel().map(
+								FileChannel.MapMode.READ_WRITE, 0, DiskSize);
+					} catch (IOException e) {
+						Lib.assertTrue(false, "Can't map Disk file");
+					}
+				}
+			});
+		}
+
 		active = false;
 	}
 
@@ -194,55 +223,188 @@ public class Disk {
 	// ----------------------------------------------------------------------
 
 	public void readRequest(int sectorNumber, byte[] data, int index) {
+		readRequest(sectorNumber, 1, data, index);
+	}
+
+	public void writeRequest(int sectorNumber, byte[] data, int index) {
+		writeRequest(sectorNumber, 1, data, index);
+	}
+
+	// ----------------------------------------------------------------------
+	// readRequest/writeRequest
+	// Multi-sector versions of the above: transfer "numSectors" consecutive
+	// sectors starting at "sectorNumber", to or from consecutive bytes of
+	// "data", as a single request with a single interrupt.
+	//
+	// The request costs one seek to the first sector, and then one
+	// rotation time per sector as they pass under the head. Moving on to
+	// the next track costs a one-track seek.
+	// ----------------------------------------------------------------------
 
-		int ticks = computeLatency(sectorNumber, false);
+	public void readRequest(int sectorNumber, int numSectors, byte[] data,
+			int index) {
 
 		Lib.assertTrue(!active); // only one request at a time
-		Lib.assertTrue((sectorNumber >= 0) && (sectorNumber < NumSectors));
+		Lib.assertTrue((sectorNumber >= 0) && (numSectors > 0)
+				&& (sectorNumber + numSectors <= NumSectors));
 
-		Lib.debug('d', "Reading from sector " + sectorNumber);
+		boolean hit = bufferHit(sectorNumber, numSectors);
+		int ticks = transferTime(sectorNumber, numSectors, false);
 
-		try {
-			file.seek(SectorSize * sectorNumber + MagicSize);
-			file.read(data, index, SectorSize);
-		} catch (IOException e) {
-			Lib.assertTrue(false, "Can't read Disk file!");
+		if (numSectors == 1)
+			Lib.debug('d', "Reading from sector " + sectorNumber);
+		else
+			Lib.debug('d', "Reading " + numSectors + " sectors from sector "
+					+ sectorNumber);
+
+		Trace.record(evtRead, sectorNumber, numSectors, ticks);
+
+		if (mapped != null) {
+			mapped.position(SectorSize * sectorNumber + MagicSize);
+			mapped.get(data, index, SectorSize * numSectors);
+		} else {
+			try {
+				file.seek(SectorSize * sectorNumber + MagicSize);
+				file.readFully(data, index, SectorSize * numSectors);
+			} catch (IOException e) {
+				Lib.assertTrue(false, "Can't read Disk file!");
+			}
 		}
 
 		// if (Debug.isEnabled('d'))
 		// printSector(false, sectorNumber, data);
 
 		active = true;
-		updateLast(sectorNumber);
-		privilege.stats.numDiskReads++;
+		if (!hit) // the head doesn't move for the track buffer
+			updateLast(sectorNumber + numSectors - 1);
+		privilege.stats.numDiskReads += numSectors;
 		privilege.interrupt.schedule((long) ticks, "disk", dskHandler);
 	}
 
-	public void writeRequest(int sectorNumber, byte[] data, int index) {
-
-		int ticks = computeLatency(sectorNumber, true);
+	public void writeRequest(int sectorNumber, int numSectors, byte[] data,
+			int index) {
 
 		Lib.assertTrue(!active);
-		Lib.assertTrue((sectorNumber >= 0) && (sectorNumber < NumSectors));
+		Lib.assertTrue((sectorNumber >= 0) && (numSectors > 0)
+				&& (sectorNumber + numSectors <= NumSectors));
+
+		int ticks = transferTime(sectorNumber, numSectors, true);
+
+		if (numSectors == 1)
+			Lib.debug('d', "Writing to sector " + sectorNumber);
+		else
+			Lib.debug('d', "Writing " + numSectors + " sectors to sector "
+					+ sectorNumber);
 
-		Lib.debug('d', "Writing to sector " + sectorNumber);
+		Trace.record(evtWrite, sectorNumber, numSectors, ticks);
 
-		try {
-			file.seek(SectorSize * sectorNumber + MagicSize);
-			file.write(data, index, SectorSize);
-		} catch (IOException e) {
-			Lib.assertTrue(false, "Can't write Disk file!");
+		if (mapped != null) {
+			mapped.position(SectorSize * sectorNumber + MagicSize);
+			mapped.put(data, index, SectorSize * numSectors);
+		} else {
+			try {
+				file.seek(SectorSize * sectorNumber + MagicSize);
+				file.write(data, index, SectorSize * numSectors);
+			} catch (IOException e) {
+				Lib.assertTrue(false, "Can't write Disk file!");
+			}
 		}
 
 		// if (Debug.isEnabled('d'))
 		// printSector(true, sectorNumber, data);
 
 		active = true;
-		updateLast(sectorNumber);
-		privilege.stats.numDiskWrites++;
+		updateLast(sectorNumber + numSectors - 1);
+		privilege.stats.numDiskWrites += numSectors;
 		privilege.interrupt.schedule(ticks, "Disk", dskHandler);
 	}
 
+	// ----------------------------------------------------------------------
+	// transferTime()
+	// Return how long a request for "numSectors" sectors starting at
+	// "sectorNumber" takes: the latency of the first sector, then one
+	// rotation time for each further sector, plus a one-track seek each
+	// time the transfer moves on to the next track.
+	//
+	// A read that finds all its sectors in the track buffer only costs
+	// the rotation time for each sector. A read that misses leaves the
+	// track of its last sector in the buffer.
+	// ----------------------------------------------------------------------
+
+	private int transferTime(int sectorNumber, int numSectors, boolean writing) {
+		if (!writing && trackBuffer) {
+			if (bufferHit(sectorNumber, numSectors)) {
+				privilege.stats.numTrackBufferHits++;
+				Lib.debug('d', "Track buffer hit, latency = " + numSectors
+						* Stats.RotationTime);
+				return numSectors * Stats.RotationTime;
+			}
+
+			privilege.stats.numTrackBufferMisses++;
+			bufferedTrack = (sectorNumber + numSectors - 1) / SectorsPerTrack;
+		}
+
+		int ticks = computeLatency(sectorNumber, writing);
+
+		for (int i = 1; i < numSectors; i++) {
+			ticks += Stats.RotationTime;
+			if ((sectorNumber + i) % SectorsPerTrack == 0)
+				ticks += Stats.SeekTime;
+		}
+
+		return ticks;
+	}
+
+	// ----------------------------------------------------------------------
+	// flush()
+	// Make sure everything written to the disk has reached the UNIX file.
+	// Only the mapped backend keeps writes in memory, so only it has
+	// anything to do.
+	// ----------------------------------------------------------------------
+
+	public void flush() {
+		if (mapped != null)
+			mapped.force();
+	}
+
+	// ----------------------------------------------------------------------
+	// readImage()/writeImage()
+	// Copy the whole disk, every sector in order, to or from "image",
+	// without simulating any time. Used to save and restore snapshots.
+	// ----------------------------------------------------------------------
+
+	void readImage(byte[] image) {
+		Lib.assertTrue(!active && image.length == NumSectors * SectorSize);
+
+		if (mapped != null) {
+			mapped.position(MagicSize);
+			mapped.get(image);
+		} else {
+			try {
+				file.seek(MagicSize);
+				file.readFully(image);
+			} catch (IOException e) {
+				Lib.assertTrue(false, "Can't read Disk file!");
+			}
+		}
+	}
+
+	void writeImage(byte[] image) {
+		Lib.assertTrue(!active && image.length == NumSectors * SectorSize);
+
+		if (mapped != null) {
+			mapped.position(MagicSize);
+			mapped.put(image);
+		} else {
+			try {
+				file.seek(MagicSize);
+				file.write(image);
+			} catch (IOException e) {
+				Lib.assertTrue(false, "Can't write Disk file!");
+			}
+		}
+	}
+
 	// ----------------------------------------------------------------------
 	// handleInterrupt()
 	// Called when it is time to invoke the disk interrupt handler,
@@ -268,31 +430,14 @@ public class Disk {
 	// how long it will take to rotate completely past newSector after
 	// that point.
 	//
-	// The disk also has a "track buffer"; the disk continuously reads
-	// the contents of the current disk track into the buffer. This allows
-	// read requests to the current track to be satisfied more quickly.
-	// The contents of the track buffer are discarded after every seek to
-	// a new track.
+	// Reads served from the track buffer don't get here; see
+	// transferTime().
 	// ----------------------------------------------------------------------
 
 	public int computeLatency(int newSector, boolean writing) {
 		timeToSeek(newSector); // computes seek and rotation
 		int timeAfter = (int) (privilege.stats.totalTicks + seek + rotation);
 
-		if (NOTRACKBUF == false) {
-			// turn this on if you don't want the track buffer stuff
-
-			// check if track buffer applies
-			if ((writing == false)
-					&& (seek == 0)
-					&& (((timeAfter - bufferInit) / Stats.RotationTime) > moduloDiff(
-							newSector, bufferInit / Stats.RotationTime))) {
-				Lib.debug('d', "Request latency = " + Stats.RotationTime);
-				return Stats.RotationTime; // time to transfer sector from the
-				// track buffer
-			}
-		}
-
 		rotation += moduloDiff(newSector, timeAfter / Stats.RotationTime)
 				* Stats.RotationTime;
 
@@ -344,19 +489,25 @@ public class Disk {
 
 	// ----------------------------------------------------------------------
 	// updateLast
-	// Keep track of the most recently requested sector. So we can know
-	// what is in the track buffer.
+	// Keep track of the most recently requested sector, so we can know
+	// where the disk head is.
 	// ----------------------------------------------------------------------
 
 	private void updateLast(int newSector) {
+		lastSector = newSector;
+		Lib.debug('d', "Updating last sector = " + lastSector);
+	}
 
-		timeToSeek(newSector); // computes seek and rotation
+	// ----------------------------------------------------------------------
+	// bufferHit
+	// Return true if every sector of a read is in the track buffer.
+	// ----------------------------------------------------------------------
 
-		if (seek != 0)
-			bufferInit = (int) (privilege.stats.totalTicks + seek + rotation);
-		lastSector = newSector;
-		Lib.debug('d', "Updating last sector = " + lastSector + ", "
-				+ bufferInit);
+	private boolean bufferHit(int sectorNumber, int numSectors) {
+		return trackBuffer && bufferedTrack != -1
+				&& sectorNumber / SectorsPerTrack == bufferedTrack
+				&& (sectorNumber + numSectors - 1) / SectorsPerTrack
+						== bufferedTrack;
 	}
 
 	// ----------------------------------------------------------------------
@@ -193,6 +193,16 @@ public final class GraphicalConsole implements SerialConsole {
 		outgoingKey = value & 0xFF;
 	}
 
+	/**
+	 * Send one byte; the text area is updated a character at a time.
+	 */
+	public int writeBytes(byte[] buf, int offset, int length) {
+		Lib.assertTrue(length > 0);
+
+		writeByte(buf[offset]);
+		return 1;
+	}
+
 	private Privilege privilege;
 
 	private Runnable receiveInterrupt;
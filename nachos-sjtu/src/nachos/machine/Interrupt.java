@@ -2,9 +2,6 @@
 
 package nachos.machine;
 
-import java.util.Iterator;
-import java.util.TreeSet;
-
 import nachos.security.Privilege;
 
 /**
@@ -52,7 +49,9 @@ public final class Interrupt {
 		privilege.interrupt = new InterruptPrivilege();
 
 		enabled = false;
-		pending = new TreeSet<PendingInterrupt>();
+		pending = new TimingWheel();
+
+		fastForwardIdle = Config.getBoolean("Interrupt.fastForwardIdle", false);
 	}
 
 	/**
@@ -127,8 +126,12 @@ public final class Interrupt {
 		long time = privilege.stats.totalTicks + when;
 		PendingInterrupt toOccur = new PendingInterrupt(time, type, handler);
 
-		Lib.debug(dbgInt, "Scheduling the " + type
-				+ " interrupt handler at time = " + time);
+		if (Lib.test(dbgInt))
+			System.out.println("Scheduling the " + type
+					+ " interrupt handler at time = " + time);
+
+		if (Trace.enabled(evtSchedule))
+			Trace.record(evtSchedule, Trace.intern(type), (int) when);
 
 		pending.add(toOccur);
 	}
@@ -160,25 +163,32 @@ public final class Interrupt {
 		if (Lib.test(dbgInt))
 			print();
 
+		pending.advance(time);
+
 		if (pending.isEmpty())
 			return;
 
 		if (((PendingInterrupt) pending.first()).time > time)
 			return;
 
-		Lib.debug(dbgInt, "Invoking interrupt handlers at time = " + time);
+		if (Lib.test(dbgInt))
+			System.out.println("Invoking interrupt handlers at time = " + time);
 
 		while (!pending.isEmpty()
 				&& ((PendingInterrupt) pending.first()).time <= time) {
-			PendingInterrupt next = (PendingInterrupt) pending.first();
-			pending.remove(next);
+			PendingInterrupt next = (PendingInterrupt) pending.removeFirst();
+			pending.advance(time);
 
 			Lib.assertTrue(next.time <= time);
 
 			if (privilege.processor != null)
 				privilege.processor.flushPipe();
 
-			Lib.debug(dbgInt, "  " + next.type);
+			if (Lib.test(dbgInt))
+				System.out.println("  " + next.type);
+
+			if (Trace.enabled(evtInvoke))
+				Trace.record(evtInvoke, Trace.intern(next.type));
 
 			next.handler.run();
 		}
@@ -186,13 +196,94 @@ public final class Interrupt {
 		Lib.debug(dbgInt, "  (end of list)");
 	}
 
+	/**
+	 * Return the number of user ticks that can pass before the next pending
+	 * interrupt becomes due. The processor may execute this many instructions
+	 * and then account for them at once with <tt>tickUser()</tt>, since only
+	 * the kernel can schedule interrupts. Always 0 when interrupt debugging
+	 * is on, since every tick must then be printed.
+	 * 
+	 * @return the number of user instructions that can be executed without
+	 *         invoking an interrupt handler.
+	 */
+	int userTicksUntilDue() {
+		if (Lib.test(dbgInt) || pending.isEmpty())
+			return Lib.test(dbgInt) ? 0 : Integer.MAX_VALUE;
+
+		long ticks = (pending.first().time - privilege.stats.totalTicks - 1)
+				/ Stats.UserTick;
+
+		return (int) Math.max(0, Math.min(ticks, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Called by the kernel, with interrupts disabled, when no thread is ready
+	 * to run. The idle thread would then just enable interrupts over and over,
+	 * advancing time one kernel tick at a time until an interrupt handler runs.
+	 * If <tt>Interrupt.fastForwardIdle</tt> is set, this skips straight to the
+	 * last of those ticks before the next interrupt is due. No handler would
+	 * run during the skipped ticks, and if each pass of the idle loop draws a
+	 * random number, as the lottery scheduler does, one is drawn here for each
+	 * pass skipped, so the simulation is otherwise unaffected. Nothing is
+	 * skipped when interrupt debugging is on, since every tick must then be
+	 * printed.
+	 * 
+	 * @param drawsRandom
+	 *            <tt>true</tt> if each pass of the idle loop draws a random
+	 *            number.
+	 */
+	public void idle(boolean drawsRandom) {
+		Lib.assertTrue(disabled());
+
+		if (!fastForwardIdle || Lib.test(dbgInt) || pending.isEmpty())
+			return;
+
+		Stats stats = privilege.stats;
+
+		long ticks = (pending.first().time - stats.totalTicks - 1)
+				/ Stats.KernelTick;
+		if (ticks <= 0)
+			return;
+
+		if (drawsRandom) {
+			for (long i = 0; i < ticks; i++)
+				Lib.random(1);
+		}
+
+		stats.kernelTicks += ticks * Stats.KernelTick;
+		stats.totalTicks += ticks * Stats.KernelTick;
+	}
+
+	/**
+	 * Advance simulated time as if <tt>tick(false)</tt> had been called once
+	 * for each of the specified number of user instructions. The caller must
+	 * have checked <tt>userTicksUntilDue()</tt> first, so no interrupt is
+	 * due.
+	 * 
+	 * @param numTicks
+	 *            the number of user instructions executed.
+	 */
+	void tickUser(int numTicks) {
+		Lib.assertTrue(numTicks >= 0 && numTicks <= userTicksUntilDue());
+
+		if (numTicks == 0)
+			return;
+
+		Stats stats = privilege.stats;
+
+		stats.userTicks += (long) numTicks * Stats.UserTick;
+		stats.totalTicks += (long) numTicks * Stats.UserTick;
+
+		enabled = true;
+	}
+
 	private void print() {
 		System.out.println("Time: " + privilege.stats.totalTicks
 				+ ", interrupts " + (enabled ? "on" : "off"));
 		System.out.println("Pending interrupts:");
 
-		for (Iterator<PendingInterrupt> i = pending.iterator(); i.hasNext();) {
-			PendingInterrupt toOccur = (PendingInterrupt) i.next();
+		for (TimingWheel.Event event : pending.toList()) {
+			PendingInterrupt toOccur = (PendingInterrupt) event;
 			System.out.println("  " + toOccur.type + ", scheduled at "
 					+ toOccur.time);
 		}
@@ -200,35 +291,15 @@ public final class Interrupt {
 		System.out.println("  (end of list)");
 	}
 
-	private class PendingInterrupt implements Comparable<PendingInterrupt> {
+	private class PendingInterrupt extends TimingWheel.Event {
 		PendingInterrupt(long time, String type, Runnable handler) {
-			this.time = time;
+			super(time, numPendingInterruptsCreated++);
 			this.type = type;
 			this.handler = handler;
-			this.id = numPendingInterruptsCreated++;
-		}
-
-		public int compareTo(PendingInterrupt o) {
-			PendingInterrupt toOccur = o;
-
-			// can't return 0 for unequal objects, so check all fields
-			if (time < toOccur.time)
-				return -1;
-			else if (time > toOccur.time)
-				return 1;
-			else if (id < toOccur.id)
-				return -1;
-			else if (id > toOccur.id)
-				return 1;
-			else
-				return 0;
 		}
 
-		long time;
 		String type;
 		Runnable handler;
-
-		private long id;
 	}
 
 	private long numPendingInterruptsCreated = 0;
@@ -236,10 +307,16 @@ public final class Interrupt {
 	private Privilege privilege;
 
 	private boolean enabled;
-	private TreeSet<PendingInterrupt> pending;
+	/** <tt>true</tt> if <tt>idle()</tt> may skip ticks. */
+	private boolean fastForwardIdle;
+	private TimingWheel pending;
 
 	private static final char dbgInt = 'i';
 
+	private static final int evtSchedule = Trace.event(dbgInt,
+			"schedule %s interrupt in %d ticks");
+	private static final int evtInvoke = Trace.event(dbgInt, "%s interrupt");
+
 	private class InterruptPrivilege implements Privilege.InterruptPrivilege {
 		public void schedule(long when, String type, Runnable handler) {
 			Interrupt.this.schedule(when, type, handler);
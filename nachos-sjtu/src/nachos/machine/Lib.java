@@ -46,6 +46,20 @@ public final class Lib {
 		random = new Random(randomSeed);
 	}
 
+	/**
+	 * Return the random number generator, so that its state can be saved.
+	 */
+	static Random getRandom() {
+		return random;
+	}
+
+	/**
+	 * Replace the random number generator with one whose state was saved.
+	 */
+	static void setRandom(Random random) {
+		Lib.random = random;
+	}
+
 	/**
 	 * Return a random integer between 0 and <i>range - 1</i>. Must not be
 	 * called before <tt>seedRandom()</tt> seeds the random number generator.
@@ -530,7 +544,7 @@ public final class Lib {
 	 */
 	public static Class tryLoadClass(String className) {
 		try {
-			return ClassLoader.getSystemClassLoader().loadClass(className);
+			return Lib.class.getClassLoader().loadClass(className);
 		} catch (Throwable e) {
 			return null;
 		}
@@ -545,7 +559,7 @@ public final class Lib {
 	 */
 	public static Class loadClass(String className) {
 		try {
-			return ClassLoader.getSystemClassLoader().loadClass(className);
+			return Lib.class.getClassLoader().loadClass(className);
 		} catch (Throwable e) {
 			Machine.terminate(e);
 			return null;
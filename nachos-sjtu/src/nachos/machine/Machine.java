@@ -3,6 +3,9 @@
 package nachos.machine;
 
 import java.io.File;
+import java.io.IOException;
+import java.security.PrivilegedAction;
+import java.util.concurrent.CountDownLatch;
 
 import nachos.ag.AutoGrader;
 import nachos.security.NachosSecurityManager;
@@ -45,6 +48,15 @@ public final class Machine {
 		securityManager = new NachosSecurityManager(testDirectory);
 		privilege = securityManager.getPrivilege();
 
+		if (hosted) {
+			securityManager.host(new Runnable() {
+				public void run() {
+					TCB.killAll();
+					exited.countDown();
+				}
+			});
+		}
+
 		privilege.machine = new MachinePrivilege();
 
 		TCB.givePrivilege(privilege);
@@ -63,6 +75,32 @@ public final class Machine {
 		});
 	}
 
+	/**
+	 * Run Nachos in a JVM that it shares with other machines, as
+	 * <tt>BatchLauncher</tt> does. The caller must load this class with a
+	 * class loader of its own, so that this machine gets its own copy of every
+	 * static field, here and in the kernel. Exiting stops the Java threads of
+	 * this machine instead of the JVM, and this method returns.
+	 * 
+	 * @param args
+	 *            the command line arguments.
+	 * @return the exit status.
+	 */
+	public static int runHosted(String[] args) throws InterruptedException {
+		hosted = true;
+
+		try {
+			main(args);
+		} catch (ThreadDeath e) {
+			// exit() was called by the first TCB
+		}
+
+		// the first TCB can finish while others keep running
+		exited.await();
+
+		return securityManager.getExitStatus();
+	}
+
 	/**
 	 * Yield to non-Nachos threads. Use in non-preemptive JVM's to give
 	 * non-Nachos threads a chance to run.
@@ -89,6 +127,7 @@ public final class Machine {
 			throw (ThreadDeath) e;
 
 		e.printStackTrace();
+		Trace.dump();
 		terminate();
 	}
 
@@ -98,7 +137,11 @@ public final class Machine {
 	public static void halt() {
 //		new Exception().printStackTrace();
 		System.out.print("Machine halting!\n\n");
+		if (synchDisk != null)
+			synchDisk.flush();
 		stats.print();
+		if (processor != null)
+			processor.printProfile();
 		terminate();
 	}
 
@@ -115,6 +158,16 @@ public final class Machine {
 		return result;
 	}
 
+	/**
+	 * Exit after a switch that only prints something, such as <tt>-h</tt>. A
+	 * machine that shares its JVM with others must not end the JVM, so it
+	 * fails an assertion instead, as <tt>Config</tt> does.
+	 */
+	private static void exitBeforeStarting() {
+		Lib.assertTrue(!hosted, "exited before starting");
+		System.exit(1);
+	}
+
 	private static void processArgs() {
 		for (int i = 0; i < args.length;) {
 			String arg = args[i++];
@@ -124,7 +177,7 @@ public final class Machine {
 					Lib.enableDebugFlags(args[i++]);
 				} else if (arg.equals("-h")) {
 					System.out.print(help);
-					System.exit(1);
+					exitBeforeStarting();
 				} else if (arg.equals("-m")) {
 					Lib.assertTrue(i < args.length, "switch without argument");
 					try {
@@ -139,12 +192,18 @@ public final class Machine {
 					} catch (NumberFormatException e) {
 						Lib.assertNotReached("bad value for -s switch");
 					}
+				} else if (arg.equals("-snapshot")) {
+					Lib.assertTrue(i < args.length, "switch without argument");
+					snapshotFileName = args[i++];
+				} else if (arg.equals("-restore")) {
+					Lib.assertTrue(i < args.length, "switch without argument");
+					restoreFileName = args[i++];
 				} else if (arg.equals("-x")) {
 					Lib.assertTrue(i < args.length, "switch without argument");
 					shellProgramName = args[i++];
 				} else if (arg.equals("-z")) {
 					System.out.print(copyright);
-					System.exit(1);
+					exitBeforeStarting();
 				}
 				// these switches are reserved for the autograder
 				else if (arg.equals("-[]")) {
@@ -161,13 +220,66 @@ public final class Machine {
 	}
 
 	private static void createDevices() {
+		Trace.init(privilege, stats);
+
+		if (restoreFileName != null) {
+			restored = privilege
+					.doPrivileged(new PrivilegedAction<Snapshot>() {
+						public Snapshot run() {
+							try {
+								return Snapshot.load(restoreFileName);
+							} catch (IOException e) {
+								Lib.assertNotReached("can't read snapshot "
+										+ restoreFileName + ": " + e);
+								return null;
+							}
+						}
+					});
+
+			try {
+				restored.restoreStats(stats);
+			} catch (IOException e) {
+				Lib.assertNotReached("bad snapshot " + restoreFileName);
+			}
+		}
+
 		interrupt = new Interrupt(privilege);
 		timer = new Timer(privilege);
 
+		int sampleInterval = Config.getInteger("Stats.sampleInterval", 0);
+		if (sampleInterval > 0) {
+			final StatsSampler sampler = new StatsSampler(stats,
+					sampleInterval, Config.getInteger("Stats.sampleCapacity",
+							4096));
+			final String fileName = Config.getString("Stats.sampleFile",
+					"nachos-stats.csv");
+
+			// take a last sample and write them all out, however we exit
+			privilege.addExitNotificationHandler(new Runnable() {
+				public void run() {
+					sampler.sample();
+					privilege.doPrivileged(new Runnable() {
+						public void run() {
+							try {
+								sampler.write(fileName);
+							} catch (IOException e) {
+								System.out.println("Can't write " + fileName
+										+ ": " + e);
+							}
+						}
+					});
+				}
+			});
+
+			timer.sampler = sampler;
+		}
+
 		if (Config.getBoolean("Machine.processor")) {
 			if (numPhysPages == -1)
 				numPhysPages = Config.getInteger("Processor.numPhysPages");
 			processor = new Processor(privilege, numPhysPages);
+			if (restored != null)
+				restored.restoreProcessor(processor);
 		}
 
 		if (Config.getBoolean("Machine.graphicalConsole", false))
@@ -179,6 +291,8 @@ public final class Machine {
 			String diskFileName = Config.getString("Machine.diskFilename",
 					"nachos-disk.dat");
 			synchDisk = new SynchDisk(privilege, diskFileName);
+			if (restored != null)
+				restored.restoreDisk(synchDisk);
 		}
 		
 		if (Config.getBoolean("Machine.stubFileSystem"))
@@ -342,6 +456,52 @@ public final class Machine {
 		return autoGrader;
 	}
 
+	/**
+	 * Test whether the machine was restored from a snapshot with
+	 * <tt>-restore</tt>. If so, the disk already holds whatever the kernel
+	 * had written to it when the snapshot was taken, so the kernel can skip
+	 * formatting and filling it.
+	 * 
+	 * @return <tt>true</tt> if the machine was restored from a snapshot.
+	 */
+	public static boolean restoredFromSnapshot() {
+		return restored != null;
+	}
+
+	/**
+	 * Test whether a snapshot was requested with <tt>-snapshot</tt>.
+	 * 
+	 * @return <tt>true</tt> if the kernel should call <tt>snapshot()</tt>
+	 *         once it has booted.
+	 */
+	public static boolean snapshotRequested() {
+		return snapshotFileName != null;
+	}
+
+	/**
+	 * Save the statistics, the random number generator, main memory, the
+	 * registers and the disk to the file named with <tt>-snapshot</tt>. The
+	 * kernel should call this once it has booted, after writing back anything
+	 * it caches, and while no disk request is in progress.
+	 * 
+	 * @see nachos.machine.Snapshot
+	 */
+	public static void snapshot() {
+		Lib.assertTrue(snapshotRequested());
+
+		privilege.doPrivileged(new Runnable() {
+			public void run() {
+				try {
+					Snapshot.save(snapshotFileName, stats, processor,
+							synchDisk);
+				} catch (IOException e) {
+					Lib.assertNotReached("can't write snapshot "
+							+ snapshotFileName + ": " + e);
+				}
+			}
+		});
+	}
+
 	public static String[] stubFileList() {
 		return testDirectory.list();
 	}
@@ -404,6 +564,10 @@ public final class Machine {
 
 	private static String[] args = null;
 
+	/** <tt>true</tt> if started by <tt>runHosted()</tt>. */
+	static boolean hosted = false;
+	private static CountDownLatch exited = new CountDownLatch(1);
+
 	private static Stats stats = new Stats();
 
 	private static int numPhysPages = -1;
@@ -412,6 +576,9 @@ public final class Machine {
 	private static File baseDirectory, testDirectory;
 	private static String configFileName = "nachos.conf";
 
+	private static String snapshotFileName = null, restoreFileName = null;
+	private static Snapshot restored = null;
+
 	private static final String help = "\n"
 			+ "Options:\n"
 			+ "\n"
@@ -426,7 +593,12 @@ public final class Machine {
 			+ "\n"
 			+ "\t-s <seed>\n"
 			+ "\t\tSpecify the seed for the random number generator (seed is a\n"
-			+ "\t\tlong).\n" + "\n" + "\t-x <program>\n"
+			+ "\t\tlong).\n" + "\n" + "\t-snapshot <file>\n"
+			+ "\t\tSave the state of the machine to a file once the kernel\n"
+			+ "\t\thas booted.\n" + "\n" + "\t-restore <file>\n"
+			+ "\t\tRestore the state of the machine from a snapshot, so that\n"
+			+ "\t\tthe kernel can skip preparing the disk.\n" + "\n"
+			+ "\t-x <program>\n"
 			+ "\t\tSpecify a program that UserKernel.run() should execute,\n"
 			+ "\t\tinstead of the value of the configuration variable\n"
 			+ "\t\tKernel.shellProgram\n" + "\n" + "\t-z\n"
@@ -0,0 +1,130 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import java.util.LinkedList;
+
+/**
+ * An in-process switch that connects the network links of every machine in
+ * this JVM, used instead of UDP sockets when <tt>NetworkLink.fabric</tt> is
+ * <tt>memory</tt>. Each attached link has a FIFO queue of packets waiting to
+ * be received.
+ * 
+ * <p>
+ * Machines in one JVM do not share a clock, so a packet is stamped with the
+ * time, on the sender's clock, at which it is due to arrive, and the receiver
+ * takes it once its own clock has reached that time. Since senders' clocks
+ * differ, the receiver takes the packet with the earliest arrival time that
+ * has passed, wherever it is in the queue, so that a packet stamped far ahead
+ * by one sender does not hold up the packets of others. Packets from one
+ * sender are stamped in order, so they still arrive in order.
+ * 
+ * <p>
+ * When <tt>BatchLauncher</tt> gives each machine its own class loader, this
+ * class is still loaded once for the whole JVM, so that the machines share
+ * it. It must therefore use no other Nachos classes, and its methods are
+ * public so that other class loaders' copies of <tt>NetworkLink</tt> can use
+ * them.
+ */
+public final class NetworkFabric {
+	private NetworkFabric() {
+	}
+
+	/**
+	 * Attach a new link to the switch.
+	 * 
+	 * @param limit
+	 *            one more than the highest link address allowed.
+	 * @return the lowest free link address, or -1 if there is none.
+	 */
+	public static synchronized int attach(int limit) {
+		for (int address = 0; address < limit; address++) {
+			if (queues[address] == null) {
+				queues[address] = new LinkedList<Frame>();
+				return address;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Detach a link, dropping any packets waiting for it. Its address can then
+	 * be reused.
+	 * 
+	 * @param address
+	 *            the address of the link.
+	 */
+	public static synchronized void detach(int address) {
+		queues[address] = null;
+	}
+
+	/**
+	 * Queue a packet for a link. The packet is dropped if the link does not
+	 * exist or its queue is full, just as a datagram would be.
+	 * 
+	 * @param address
+	 *            the address of the receiving link.
+	 * @param packetBytes
+	 *            the contents of the packet.
+	 * @param arrivalTime
+	 *            the time at which the packet arrives.
+	 * @return <tt>true</tt> if the packet was queued.
+	 */
+	public static synchronized boolean send(int address, byte[] packetBytes,
+			long arrivalTime) {
+		LinkedList<Frame> queue = queues[address];
+		if (queue == null || queue.size() >= queueLimit)
+			return false;
+
+		queue.add(new Frame(packetBytes, arrivalTime));
+		return true;
+	}
+
+	/**
+	 * Take the packet for a link with the earliest arrival time, if any has
+	 * arrived by <i>time</i>.
+	 * 
+	 * @param address
+	 *            the address of the receiving link.
+	 * @param time
+	 *            the current time on the receiver's clock.
+	 * @return the contents of the packet, or <tt>null</tt> if none has
+	 *         arrived.
+	 */
+	public static synchronized byte[] receive(int address, long time) {
+		LinkedList<Frame> queue = queues[address];
+		if (queue == null)
+			return null;
+
+		Frame next = null;
+		for (Frame frame : queue) {
+			if (frame.arrivalTime <= time
+					&& (next == null || frame.arrivalTime < next.arrivalTime))
+				next = frame;
+		}
+
+		if (next == null)
+			return null;
+
+		queue.remove(next);
+		return next.packetBytes;
+	}
+
+	private static class Frame {
+		Frame(byte[] packetBytes, long arrivalTime) {
+			this.packetBytes = packetBytes;
+			this.arrivalTime = arrivalTime;
+		}
+
+		byte[] packetBytes;
+		long arrivalTime;
+	}
+
+	/** The most packets a link can have waiting. */
+	private static final int queueLimit = 1024;
+
+	/** The queue of each attached link, indexed by link address. */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static LinkedList<Frame>[] queues = new LinkedList[256];
+}
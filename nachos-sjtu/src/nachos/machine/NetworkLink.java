@@ -65,7 +65,12 @@ public class NetworkLink {
 	 * <p>
 	 * <tt>nachos.conf</tt> specifies the reliability of the network. The
 	 * reliability, between 0 and 1, is the probability that any particular
-	 * packet will not get dropped by the network.
+	 * packet will not get dropped by the network. <tt>NetworkLink.fabric</tt>
+	 * selects how links are connected: <tt>udp</tt> (the default) sends each
+	 * packet as a datagram to a socket on this host, while <tt>memory</tt>
+	 * uses a <tt>NetworkFabric</tt> switch shared by the machines in this JVM,
+	 * with the latency and bandwidth given by <tt>NetworkLink.latency</tt>
+	 * and <tt>NetworkLink.bandwidth</tt>.
 	 * 
 	 * @param privilege
 	 *            encapsulates privileged access to the Nachos machine.
@@ -75,31 +80,68 @@ public class NetworkLink {
 
 		this.privilege = privilege;
 
-		try {
-			localHost = InetAddress.getLocalHost();
-		} catch (UnknownHostException e) {
-			localHost = null;
-		}
-
-		Lib.assertTrue(localHost != null);
-
 		reliability = Config.getDouble("NetworkLink.reliability");
 		Lib.assertTrue(reliability > 0 && reliability <= 1.0);
 
-		socket = null;
+		String fabric = Config.getString("NetworkLink.fabric", "udp");
+		Lib.assertTrue(fabric.equals("udp") || fabric.equals("memory"),
+				"NetworkLink.fabric must be udp or memory");
+
+		if (fabric.equals("memory")) {
+			memoryFabric = true;
 
-		for (linkAddress = 0; linkAddress < Packet.linkAddressLimit; linkAddress++) {
+			latency = Config.getInteger("NetworkLink.latency", 0);
+			bandwidth = Config.getDouble("NetworkLink.bandwidth", 0);
+			Lib.assertTrue(latency >= 0 && bandwidth >= 0);
+
+			linkAddress = (byte) NetworkFabric.attach(Packet.linkAddressLimit);
+			if (linkAddress == -1) {
+				System.out.println("");
+				System.out.println("Unable to acquire a link address!");
+				Lib.assertNotReached();
+			}
+
+			// free the address for a later machine in this JVM
+			privilege.addExitNotificationHandler(new Runnable() {
+				public void run() {
+					NetworkFabric.detach(linkAddress);
+				}
+			});
+		} else {
 			try {
-				socket = new DatagramSocket(portBase + linkAddress, localHost);
-				break;
-			} catch (SocketException e) {
+				localHost = InetAddress.getLocalHost();
+			} catch (UnknownHostException e) {
+				localHost = null;
 			}
-		}
 
-		if (socket == null) {
-			System.out.println("");
-			System.out.println("Unable to acquire a link address!");
-			Lib.assertNotReached();
+			Lib.assertTrue(localHost != null);
+
+			socket = null;
+
+			for (linkAddress = 0; linkAddress < Packet.linkAddressLimit; linkAddress++) {
+				try {
+					socket = new DatagramSocket(portBase + linkAddress,
+							localHost);
+					break;
+				} catch (SocketException e) {
+				}
+			}
+
+			if (socket == null) {
+				System.out.println("");
+				System.out.println("Unable to acquire a link address!");
+				Lib.assertNotReached();
+			}
+
+			outgoingDatagram = new DatagramPacket(new byte[0], 0, localHost,
+					portBase);
+
+			// ends receiveLoop() if the JVM outlives this machine
+			privilege.addExitNotificationHandler(new Runnable() {
+				public void run() {
+					socket.close();
+				}
+			});
 		}
 
 		System.out.print("(" + linkAddress + ")");
@@ -118,6 +160,10 @@ public class NetworkLink {
 
 		scheduleReceiveInterrupt();
 
+		// the switch is polled by receiveInterrupt() instead
+		if (memoryFabric)
+			return;
+
 		Thread receiveThread = new Thread(new Runnable() {
 			public void run() {
 				receiveLoop();
@@ -167,6 +213,10 @@ public class NetworkLink {
 	private synchronized void receiveInterrupt() {
 		Lib.assertTrue(incomingPacket == null);
 
+		if (memoryFabric && incomingBytes == null)
+			incomingBytes = NetworkFabric.receive(linkAddress,
+					privilege.stats.totalTicks);
+
 		if (incomingBytes != null) {
 			if (Machine.autoGrader().canReceivePacket(privilege)) {
 				try {
@@ -207,6 +257,10 @@ public class NetworkLink {
 	}
 
 	private void receiveLoop() {
+		// only the received bytes are copied out, so the buffer is reused
+		byte[] buffer = new byte[Packet.maxPacketLength];
+		DatagramPacket dp = new DatagramPacket(buffer, buffer.length);
+
 		while (true) {
 			synchronized (this) {
 				while (incomingBytes != null) {
@@ -220,10 +274,7 @@ public class NetworkLink {
 			byte[] packetBytes;
 
 			try {
-				byte[] buffer = new byte[Packet.maxPacketLength];
-
-				DatagramPacket dp = new DatagramPacket(buffer, buffer.length);
-
+				dp.setLength(buffer.length);
 				socket.receive(dp);
 
 				packetBytes = new byte[dp.getLength()];
@@ -239,9 +290,13 @@ public class NetworkLink {
 		}
 	}
 
-	private void scheduleSendInterrupt() {
-		privilege.interrupt.schedule(Stats.NetworkTime, "network send",
-				sendInterrupt);
+	private void scheduleSendInterrupt(Packet pkt) {
+		long transmitTime = 0;
+		if (bandwidth > 0)
+			transmitTime = (long) Math.ceil(pkt.packetBytes.length / bandwidth);
+
+		privilege.interrupt.schedule(Stats.NetworkTime + transmitTime,
+				"network send", sendInterrupt);
 	}
 
 	private void sendInterrupt() {
@@ -268,9 +323,18 @@ public class NetworkLink {
 		Packet p = outgoingPacket;
 		outgoingPacket = null;
 
+		if (memoryFabric) {
+			// copy, since the sender may reuse the packet before it arrives
+			if (NetworkFabric.send(p.dstLink, p.packetBytes.clone(),
+					privilege.stats.totalTicks + latency))
+				privilege.stats.numPacketsSent++;
+			return;
+		}
+
 		try {
-			socket.send(new DatagramPacket(p.packetBytes, p.packetBytes.length,
-					localHost, portBase + p.dstLink));
+			outgoingDatagram.setData(p.packetBytes);
+			outgoingDatagram.setPort(portBase + p.dstLink);
+			socket.send(outgoingDatagram);
 
 			privilege.stats.numPacketsSent++;
 		} catch (IOException e) {
@@ -286,7 +350,7 @@ public class NetworkLink {
 	 */
 	public void send(Packet pkt) {
 		if (outgoingPacket == null)
-			scheduleSendInterrupt();
+			scheduleSendInterrupt(pkt);
 
 		outgoingPacket = pkt;
 	}
@@ -318,10 +382,19 @@ public class NetworkLink {
 
 	private InetAddress localHost;
 	private DatagramSocket socket;
+	/** Reused for every packet sent, since the socket does not keep it. */
+	private DatagramPacket outgoingDatagram;
 
 	private byte linkAddress;
 	private double reliability;
 
+	/** <tt>true</tt> if this link is attached to a <tt>NetworkFabric</tt>. */
+	private boolean memoryFabric = false;
+	/** The ticks a packet takes to cross the fabric. */
+	private long latency = 0;
+	/** The bytes the fabric carries per tick, or 0 for no limit. */
+	private double bandwidth = 0;
+
 	private byte[] incomingBytes = null;
 	private Packet incomingPacket = null;
 	private Packet outgoingPacket = null;
@@ -2,6 +2,14 @@
 
 package nachos.machine;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
 import nachos.security.*;
 
 /**
@@ -45,15 +53,65 @@ public final class Processor {
 		for (int i = 0; i < numUserRegisters; i++)
 			registers[i] = 0;
 
-		mainMemory = new byte[pageSize * numPhysPages];
+		memoryView = allocateMemory(pageSize * numPhysPages).order(
+				ByteOrder.LITTLE_ENDIAN);
+		mainMemory = memoryView.hasArray() ? memoryView.array() : null;
+		decodedPages = new Decoded[numPhysPages][];
+
+		String engine = Config.getString("Processor.engine", "classic");
+		Lib.assertTrue(engine.equals("classic") || engine.equals("threaded")
+				|| engine.equals("jit"), "unknown Processor.engine: " + engine);
+
+		if (!engine.equals("classic"))
+			blockPages = new Block[numPhysPages][];
+		else
+			blockPages = null;
+
+		if (engine.equals("jit")) {
+			translator = new BlockTranslator(this);
+			jitThreshold = Config.getInteger("Processor.jitThreshold", 50);
+			Lib.assertTrue(jitThreshold > 0);
+		} else {
+			translator = null;
+		}
 
 		if (usingTLB) {
+			tlbSize = Config.getInteger("Processor.tlbSize", 4);
+			tlbAssociativity = Config.getInteger("Processor.tlbAssociativity",
+					tlbSize);
+			Lib.assertTrue(tlbSize > 0 && tlbAssociativity > 0
+					&& tlbSize % tlbAssociativity == 0);
+
+			int numSets = tlbSize / tlbAssociativity;
+			Lib.assertTrue((numSets & (numSets - 1)) == 0,
+					"number of TLB sets must be a power of two");
+			tlbSetMask = numSets - 1;
+
 			translations = new TranslationEntry[tlbSize];
 			for (int i = 0; i < tlbSize; i++)
 				translations[i] = new TranslationEntry();
+
+			int numSlots = 1;
+			while (numSlots < tlbSize * 2)
+				numSlots *= 2;
+			tlbSlots = new int[numSlots];
+			Arrays.fill(tlbSlots, -1);
+
+			tlbHits = new long[numSets];
+			privilege.stats.numTLBHitsPerSet = tlbHits;
+			privilege.stats.numTLBMissesPerSet = new long[numSets];
 		} else {
 			translations = null;
 		}
+
+		tracing = Lib.test(dbgProcessor);
+
+		int profileInterval = Config.getInteger("Processor.profileInterval", 0);
+		if (profileInterval > 0)
+			profiler = new Profiler(this, privilege.stats, profileInterval,
+					numPhysPages);
+		else
+			profiler = null;
 	}
 
 	/**
@@ -83,6 +141,14 @@ public final class Processor {
 
 	/**
 	 * Start executing instructions at the current PC. Never returns.
+	 * 
+	 * <p>
+	 * If <tt>Processor.engine</tt> is <tt>threaded</tt>, instructions are
+	 * executed a basic block at a time, unless a processor or disassembly
+	 * debug flag is set, in which case the classic interpreter is used so that
+	 * every instruction can be traced. If it is <tt>jit</tt>, blocks that have
+	 * run <tt>Processor.jitThreshold</tt> times are also translated to JVM
+	 * classes.
 	 */
 	public void run() {
 		Lib.debug(dbgProcessor, "starting program in current thread");
@@ -93,20 +159,253 @@ public final class Processor {
 
 		Instruction inst = new Instruction();
 
+		if (blockPages != null && !Lib.test(dbgProcessor)
+				&& !Lib.test(dbgDisassemble) && !Lib.test(dbgFullDisassemble))
+			runThreaded(inst);
+
+		Interrupt interrupt = Machine.interrupt();
+
 		while (true) {
+			// run up to the next interrupt without ticking, then tick once
+			// for the instruction that makes it due
+			int numBatched = interrupt.userTicksUntilDue();
+			if (profiler != null)
+				numBatched = profiler.limit(numBatched);
+			int numExecuted = 0;
+
 			try {
+				while (numExecuted < numBatched) {
+					inst.run();
+					numExecuted++;
+				}
+
+				interrupt.tickUser(numExecuted);
+				if (profiler != null)
+					profiler.step(registers[regPC]);
 				inst.run();
 //				inst.print();
 			} catch (MipsException e) {
 //				e.printStackTrace();
 //				inst.print();
+				if (numExecuted < numBatched)
+					interrupt.tickUser(numExecuted);
+				e.handle();
+			}
+
+			privilege.interrupt.tick(false);
+		}
+	}
+
+	/**
+	 * Execute basic blocks starting at the current PC. Never returns.
+	 * 
+	 * @param inst
+	 *            the instruction used to interpret operations that have no
+	 *            specialized handler.
+	 */
+	private void runThreaded(Instruction inst) {
+		Interrupt interrupt = Machine.interrupt();
+
+		while (true) {
+			try {
+				runBlock(inst, interrupt);
+			} catch (MipsException e) {
 				e.handle();
+				privilege.interrupt.tick(false);
+			}
+		}
+	}
+
+	/**
+	 * Execute the basic block at the current PC, advancing time exactly as
+	 * the classic interpreter does. Only the first instruction is fetched
+	 * through the TLB or page table; the rest of the block lies in the same
+	 * page, so their translations cannot change unless kernel code runs.
+	 * Execution therefore leaves the block as soon as an interrupt handler
+	 * runs (exceptions leave it by being thrown), as well as when control
+	 * leaves the straight-line path or the block is overwritten.
+	 */
+	private void runBlock(Instruction inst, Interrupt interrupt)
+			throws MipsException {
+		int pc = registers[regPC];
+		Block block = getBlock(translateFetch(pc));
+		int numBatched = interrupt.userTicksUntilDue();
+		if (profiler != null)
+			numBatched = profiler.limit(numBatched);
+
+		// a translated block must be entered at its start, outside a delay
+		// slot, and can only run if no interrupt falls due before it ends
+		if (translator != null && registers[regNextPC] == pc + 4) {
+			TranslatedBlock translation = block.translation;
+			if (translation == null && ++block.numExecutions == jitThreshold)
+				translation = block.translate(pc);
+
+			if (translation != null && translation.vaddr == pc
+					&& translation.length <= numBatched) {
+				int numExecuted;
+				try {
+					numExecuted = translation.run(registers);
+				} catch (MipsException e) {
+					interrupt.tickUser((registers[regPC] - pc) / 4);
+					throw e;
+				}
+
+				interrupt.tickUser(numExecuted);
+				return;
+			}
+		}
+
+		// no interrupt can fall due during the first numBatched instructions,
+		// so their ticks are accounted for together
+		Op[] ops = block.ops;
+		if (numBatched > ops.length)
+			numBatched = ops.length;
+
+		int i = 0;
+		try {
+			while (i < numBatched) {
+				ops[i].run(inst);
+				i++;
+
+				pc += 4;
+				if (registers[regPC] != pc || !block.valid)
+					break;
 			}
+		} catch (MipsException e) {
+			interrupt.tickUser(i);
+			throw e;
+		}
 
+		interrupt.tickUser(i);
+
+		// the next instruction brings an interrupt due, so tick after it and
+		// leave the block
+		if (i == numBatched && i < ops.length && registers[regPC] == pc
+				&& block.valid) {
+			if (profiler != null)
+				profiler.step(pc);
+			ops[i].run(inst);
 			privilege.interrupt.tick(false);
 		}
 	}
 
+	/**
+	 * Allocate zeroed physical memory of the specified size, as selected by
+	 * <tt>Processor.memoryBackend</tt>: an array on the Java heap, a direct
+	 * buffer outside it, or a file mapped into memory.
+	 */
+	private ByteBuffer allocateMemory(final int size) {
+		String backend = Config.getString("Processor.memoryBackend", "heap");
+
+		if (backend.equals("heap"))
+			return ByteBuffer.wrap(new byte[size]);
+		else if (backend.equals("direct"))
+			return ByteBuffer.allocateDirect(size);
+
+		Lib.assertTrue(backend.equals("mapped"),
+				"unknown Processor.memoryBackend: " + backend);
+
+		final String name = Config.getString("Processor.memoryFile",
+				"nachos-memory.dat");
+		final ByteBuffer[] buffer = new ByteBuffer[1];
+
+		privilege.doPrivileged(new Runnable() {
+			public void run() {
+				try {
+					RandomAccessFile file = new RandomAccessFile(name, "rw");
+					file.setLength(0);
+					file.setLength(size);
+					buffer[0] = file.getChannel().map(
+							FileChannel.MapMode.READ_WRITE, 0, size);
+					file.close();
+				} catch (IOException e) {
+				}
+			}
+		});
+
+		Lib.assertTrue(buffer[0] != null, "can't map memory file " + name);
+
+		return buffer[0];
+	}
+
+	/**
+	 * Return the decoded form of the instruction word at the specified
+	 * physical address, decoding it if it is not already cached.
+	 */
+	private Decoded getDecoded(int paddr) {
+		Decoded[] page = decodedPages[paddr / pageSize];
+		if (page == null) {
+			page = new Decoded[pageSize / 4];
+			decodedPages[paddr / pageSize] = page;
+		}
+
+		int index = (paddr % pageSize) / 4;
+		Decoded decoded = page[index];
+		if (decoded == null) {
+			decoded = new Decoded(memoryView.getInt(paddr));
+			page[index] = decoded;
+		}
+
+		return decoded;
+	}
+
+	/**
+	 * Return the basic block starting at the specified physical address,
+	 * building it if it is not already cached.
+	 */
+	private Block getBlock(int paddr) {
+		int ppn = paddr / pageSize;
+
+		Block[] page = blockPages[ppn];
+		if (page == null) {
+			page = new Block[pageSize / 4];
+			blockPages[ppn] = page;
+		}
+
+		int index = (paddr % pageSize) / 4;
+		Block block = page[index];
+		if (block == null) {
+			block = new Block(paddr);
+			page[index] = block;
+		}
+
+		return block;
+	}
+
+	/**
+	 * Forget everything cached about the instruction word at the specified
+	 * physical address.
+	 */
+	private void invalidateWord(int paddr) {
+		int ppn = paddr / pageSize;
+
+		Decoded[] page = decodedPages[ppn];
+		if (page != null)
+			page[(paddr % pageSize) / 4] = null;
+
+		if (blockPages != null && blockPages[ppn] != null)
+			invalidateBlocks(ppn);
+	}
+
+	/**
+	 * Invalidate every basic block in the specified physical page, including
+	 * one that may be executing.
+	 */
+	private void invalidateBlocks(int ppn) {
+		for (Block block : blockPages[ppn]) {
+			if (block != null) {
+				block.valid = false;
+				if (block.translation != null)
+					block.translation.valid = false;
+			}
+		}
+
+		blockPages[ppn] = null;
+
+		if (translator != null)
+			translator.discardPage(ppn);
+	}
+
 	/**
 	 * Read and return the contents of the specified CPU register.
 	 * 
@@ -194,6 +493,37 @@ public final class Processor {
 		return tlbSize;
 	}
 
+	/**
+	 * Return the number of entries in each set of this processor's TLB. The
+	 * TLB is divided into sets of this many consecutive entries, and a page
+	 * can only be found through an entry in the set returned by
+	 * <tt>getTLBSet()</tt>. If this is equal to <tt>getTLBSize()</tt>, the TLB
+	 * is fully associative.
+	 * 
+	 * @return the associativity of this processor's TLB.
+	 */
+	public int getTLBAssociativity() {
+		Lib.assertTrue(usingTLB);
+
+		return tlbAssociativity;
+	}
+
+	/**
+	 * Return the set of TLB entries that can map the specified virtual page.
+	 * The set consists of the entries numbered from
+	 * <tt>set * getTLBAssociativity()</tt> up to, but not including,
+	 * <tt>(set + 1) * getTLBAssociativity()</tt>.
+	 * 
+	 * @param vpn
+	 *            the virtual page number.
+	 * @return the TLB set for <i>vpn</i>.
+	 */
+	public int getTLBSet(int vpn) {
+		Lib.assertTrue(usingTLB);
+
+		return vpn & tlbSetMask;
+	}
+
 	/**
 	 * Returns the specified TLB entry.
 	 * 
@@ -212,8 +542,9 @@ public final class Processor {
 	 * Fill the specified TLB entry.
 	 * 
 	 * <p>
-	 * The TLB is fully associative, so the location of an entry within the TLB
-	 * does not affect anything.
+	 * Unless the TLB is fully associative, an entry is only used if it is in
+	 * the set for its virtual page number (see <tt>getTLBSet()</tt>). Within
+	 * a set, the location of an entry does not affect anything.
 	 * 
 	 * @param number
 	 *            the index into the TLB.
@@ -225,6 +556,12 @@ public final class Processor {
 		Lib.assertTrue(number >= 0 && number < tlbSize);
 
 		translations[number] = new TranslationEntry(entry);
+
+		// an entry for this vpn at a lower index must take precedence over
+		// any cached one, and the last-hit entries may have been replaced
+		tlbSlots[entry.vpn & (tlbSlots.length - 1)] = -1;
+		lastFetchEntry = null;
+		lastDataEntry = null;
 	}
 
 	/**
@@ -239,14 +576,116 @@ public final class Processor {
 
 	/**
 	 * Return a reference to the physical memory array. The size of this array
-	 * is <tt>pageSize * getNumPhysPages()</tt>.
+	 * is <tt>pageSize * getNumPhysPages()</tt>. Callers that write to the array
+	 * must call <tt>invalidatePage()</tt> for every page they change.
+	 * 
+	 * <p>
+	 * There is no such array unless <tt>Processor.memoryBackend</tt> is
+	 * <tt>heap</tt> (the default). <tt>readPhysical()</tt> and
+	 * <tt>writePhysical()</tt> work with every backend.
 	 * 
 	 * @return the main memory array.
 	 */
 	public byte[] getMemory() {
+		Lib.assertTrue(mainMemory != null,
+				"physical memory is not backed by an array");
+
 		return mainMemory;
 	}
 
+	/**
+	 * Copy bytes from physical memory into an array.
+	 * 
+	 * @param paddr
+	 *            the first physical address to read.
+	 * @param data
+	 *            the array to copy into.
+	 * @param offset
+	 *            the first byte to write in the array.
+	 * @param length
+	 *            the number of bytes to copy.
+	 */
+	public void readPhysical(int paddr, byte[] data, int offset, int length) {
+		Lib.assertTrue(paddr >= 0 && length >= 0
+				&& paddr + length <= pageSize * numPhysPages);
+
+		if (mainMemory != null) {
+			System.arraycopy(mainMemory, paddr, data, offset, length);
+		} else {
+			ByteBuffer buffer = memoryView.duplicate();
+			buffer.position(paddr);
+			buffer.get(data, offset, length);
+		}
+	}
+
+	/**
+	 * Copy bytes from an array into physical memory, and invalidate the
+	 * decoded instructions cached for every page changed.
+	 * 
+	 * @param paddr
+	 *            the first physical address to write.
+	 * @param data
+	 *            the array to copy from.
+	 * @param offset
+	 *            the first byte to read from the array.
+	 * @param length
+	 *            the number of bytes to copy.
+	 */
+	public void writePhysical(int paddr, byte[] data, int offset, int length) {
+		Lib.assertTrue(paddr >= 0 && length >= 0
+				&& paddr + length <= pageSize * numPhysPages);
+
+		if (mainMemory != null) {
+			System.arraycopy(data, offset, mainMemory, paddr, length);
+		} else {
+			ByteBuffer buffer = memoryView.duplicate();
+			buffer.position(paddr);
+			buffer.put(data, offset, length);
+		}
+
+		for (int ppn = paddr / pageSize; ppn * pageSize < paddr + length; ppn++) {
+			invalidatePage(ppn);
+			if (profiler != null)
+				profiler.pageChanged(ppn);
+		}
+	}
+
+	/**
+	 * Note that a page of a COFF section has just been loaded into the
+	 * specified physical page, so that profile samples can be attributed to
+	 * it.
+	 */
+	void pageLoaded(int ppn, CoffSection section, int spn) {
+		if (profiler != null)
+			profiler.pageLoaded(ppn, section, spn);
+	}
+
+	/**
+	 * Print the profile of user programs, if profiling is enabled.
+	 */
+	void printProfile() {
+		if (profiler != null)
+			profiler.print();
+	}
+
+	/**
+	 * Discard any decoded instructions cached for the specified physical page.
+	 * Stores executed by the processor and <tt>writePhysical()</tt> keep the
+	 * cache up to date on their own, but the kernel must call this whenever it
+	 * changes the contents of a page through <tt>getMemory()</tt>.
+	 * 
+	 * @param ppn
+	 *            the physical page whose contents changed.
+	 */
+	public void invalidatePage(int ppn) {
+		Lib.assertTrue(ppn >= 0 && ppn < numPhysPages);
+
+		decodedPages[ppn] = null;
+
+		if (blockPages != null && blockPages[ppn] != null)
+			invalidateBlocks(ppn);
+	}
+
 	/**
 	 * Concatenate a page number and an offset into an address.
 	 * 
@@ -287,7 +726,7 @@ public final class Processor {
 		return (int) (((long) address & 0xFFFFFFFFL) % pageSize);
 	}
 
-	private void finishLoad() {
+	void finishLoad() {
 		delayedLoad(0, 0, 0);
 	}
 
@@ -309,7 +748,21 @@ public final class Processor {
 	 */
 	private int translate(int vaddr, int size, boolean writing)
 			throws MipsException {
-		if (Lib.test(dbgProcessor))
+		return translate(vaddr, size, writing, false);
+	}
+
+	/**
+	 * Translate the address of an instruction fetch. This is the same as
+	 * <tt>translate(vaddr, 4, false)</tt>, but keeps its own last-hit TLB
+	 * entry, so that fetches and data accesses do not evict each other.
+	 */
+	private int translateFetch(int vaddr) throws MipsException {
+		return translate(vaddr, 4, false, true);
+	}
+
+	private int translate(int vaddr, int size, boolean writing,
+			boolean fetching) throws MipsException {
+		if (tracing)
 			System.out.println("\ttranslate vaddr=0x" + Lib.toHexString(vaddr)
 					+ (writing ? ", write" : ", read..."));
 
@@ -338,19 +791,27 @@ public final class Processor {
 
 			entry = translations[vpn];
 		}
-		// else, look through all TLB entries for matching vpn
+		// else, try the last entry used for this kind of access, and then
+		// the TLB itself
 		else {
-			for (int i = 0; i < tlbSize; i++) {
-				if (translations[i].valid && translations[i].vpn == vpn) {
-					entry = translations[i];
-					break;
+			entry = fetching ? lastFetchEntry : lastDataEntry;
+
+			if (entry == null || !entry.valid || entry.vpn != vpn) {
+				entry = findTLBEntry(vpn);
+				if (entry == null) {
+					privilege.stats.numTLBMisses++;
+					privilege.stats.numTLBMissesPerSet[vpn & tlbSetMask]++;
+					Lib.debug(dbgProcessor, "\t\tTLB miss");
+					throw new MipsException(exceptionTLBMiss, vaddr);
 				}
+
+				if (fetching)
+					lastFetchEntry = entry;
+				else
+					lastDataEntry = entry;
 			}
-			if (entry == null) {
-				privilege.stats.numTLBMisses++;
-				Lib.debug(dbgProcessor, "\t\tTLB miss");
-				throw new MipsException(exceptionTLBMiss, vaddr);
-			}
+
+			tlbHits[vpn & tlbSetMask]++;
 		}
 
 		// check if trying to write a read-only page
@@ -373,11 +834,66 @@ public final class Processor {
 
 		int paddr = (ppn * pageSize) + offset;
 
-		if (Lib.test(dbgProcessor))
+		if (tracing)
 			System.out.println("\t\tpaddr=0x" + Lib.toHexString(paddr));
 		return paddr;
 	}
 
+	/**
+	 * Return the physical address the specified virtual address currently
+	 * maps to, or -1 if it is not mapped. Unlike <tt>translate()</tt>, this
+	 * has no side effects: no statistics, used bits or caches are updated.
+	 */
+	int peekPhysical(int vaddr) {
+		int vpn = pageFromAddress(vaddr);
+		TranslationEntry entry = null;
+
+		if (!usingTLB) {
+			if (translations != null && vpn < translations.length)
+				entry = translations[vpn];
+		} else {
+			int first = (vpn & tlbSetMask) * tlbAssociativity;
+			for (int i = first; i < first + tlbAssociativity; i++) {
+				if (translations[i].valid && translations[i].vpn == vpn) {
+					entry = translations[i];
+					break;
+				}
+			}
+		}
+
+		if (entry == null || !entry.valid || entry.ppn < 0
+				|| entry.ppn >= numPhysPages)
+			return -1;
+
+		return entry.ppn * pageSize + offsetFromAddress(vaddr);
+	}
+
+	/**
+	 * Return the valid TLB entry with the lowest index in the set for the
+	 * specified virtual page that maps it, or <tt>null</tt> if there is none.
+	 * The index of the entry is cached in a direct-mapped table, so that the
+	 * set is only searched when that misses.
+	 */
+	private TranslationEntry findTLBEntry(int vpn) {
+		int slot = vpn & (tlbSlots.length - 1);
+
+		if (tlbSlots[slot] >= 0) {
+			TranslationEntry entry = translations[tlbSlots[slot]];
+			if (entry.valid && entry.vpn == vpn)
+				return entry;
+		}
+
+		int first = (vpn & tlbSetMask) * tlbAssociativity;
+		for (int i = first; i < first + tlbAssociativity; i++) {
+			if (translations[i].valid && translations[i].vpn == vpn) {
+				tlbSlots[slot] = i;
+				return translations[i];
+			}
+		}
+
+		return null;
+	}
+
 	/**
 	 * Read </i>size</i> (1, 2, or 4) bytes of virtual memory at <i>vaddr</i>,
 	 * and return the result.
@@ -390,17 +906,29 @@ public final class Processor {
 	 * @exception MipsException
 	 *                if a translation error occurred.
 	 */
-	private int readMem(int vaddr, int size) throws MipsException {
-		if (Lib.test(dbgProcessor))
+	int readMem(int vaddr, int size) throws MipsException {
+		if (tracing)
 			System.out.println("\treadMem vaddr=0x" + Lib.toHexString(vaddr)
 					+ ", size=" + size);
 
 		Lib.assertTrue(size == 1 || size == 2 || size == 4);
 
-		int value = Lib.bytesToInt(mainMemory, translate(vaddr, size, false),
-				size);
+		// translate() has checked alignment, so each case is a single access
+		int paddr = translate(vaddr, size, false);
+		int value;
+		switch (size) {
+		case 4:
+			value = memoryView.getInt(paddr);
+			break;
+		case 2:
+			value = memoryView.getShort(paddr);
+			break;
+		default:
+			value = memoryView.get(paddr);
+			break;
+		}
 
-		if (Lib.test(dbgProcessor))
+		if (tracing)
 			System.out.println("\t\tvalue read=0x"
 					+ Lib.toHexString(value, size * 2));
 
@@ -420,15 +948,28 @@ public final class Processor {
 	 * @exception MipsException
 	 *                if a translation error occurred.
 	 */
-	private void writeMem(int vaddr, int size, int value) throws MipsException {
-		if (Lib.test(dbgProcessor))
+	void writeMem(int vaddr, int size, int value) throws MipsException {
+		if (tracing)
 			System.out.println("\twriteMem vaddr=0x" + Lib.toHexString(vaddr)
 					+ ", size=" + size + ", value=0x"
 					+ Lib.toHexString(value, size * 2));
 
 		Lib.assertTrue(size == 1 || size == 2 || size == 4);
 
-		Lib.bytesFromInt(mainMemory, translate(vaddr, size, true), size, value);
+		int paddr = translate(vaddr, size, true);
+		switch (size) {
+		case 4:
+			memoryView.putInt(paddr, value);
+			break;
+		case 2:
+			memoryView.putShort(paddr, (short) value);
+			break;
+		default:
+			memoryView.put(paddr, (byte) value);
+			break;
+		}
+
+		invalidateWord(paddr);
 	}
 
 	/**
@@ -444,7 +985,7 @@ public final class Processor {
 	 *            corresponding bit of register <tt>nextLoadTarget</tt> will not
 	 *            be written.
 	 */
-	private void delayedLoad(int nextLoadTarget, int nextLoadValue,
+	void delayedLoad(int nextLoadTarget, int nextLoadValue,
 			int nextLoadMask) {
 		// complete previous delayed load, if not modifying r0
 		if (loadTarget != 0) {
@@ -559,12 +1100,32 @@ public final class Processor {
 	/** <tt>true</tt> if using a software-managed TLB. */
 	private boolean usingTLB;
 	/** Number of TLB entries. */
-	private int tlbSize = 4;
+	private int tlbSize;
+	/** Number of TLB entries in each set. */
+	private int tlbAssociativity;
+	/** Selects the TLB set from the low bits of a virtual page number. */
+	private int tlbSetMask;
+	/** TLB hits in each set, shared with <tt>Stats</tt>. */
+	private long[] tlbHits;
 	/**
 	 * Either an associative or direct-mapped set of translation entries,
 	 * depending on whether there is a TLB.
 	 */
 	private TranslationEntry[] translations;
+	/**
+	 * The index of the TLB entry last found for each virtual page, hashed by
+	 * the low bits of its vpn. Entries are checked before use, so a stale
+	 * index only costs a search.
+	 */
+	private int[] tlbSlots;
+	/** The TLB entry used by the last instruction fetch, or <tt>null</tt>. */
+	private TranslationEntry lastFetchEntry;
+	/** The TLB entry used by the last data access, or <tt>null</tt>. */
+	private TranslationEntry lastDataEntry;
+	/** <tt>true</tt> if memory accesses are being traced. */
+	private final boolean tracing;
+	/** Samples user PCs, or <tt>null</tt> if not profiling. */
+	private final Profiler profiler;
 
 	/** Size of a page, in bytes. */
 	public static final int pageSize = 0x400;
@@ -572,8 +1133,29 @@ public final class Processor {
 	public static final int maxPages = (int) (0x100000000L / pageSize);
 	/** Number of physical pages in memory. */
 	private int numPhysPages;
-	/** Main memory for user programs. */
+	/** Main memory for user programs, as a little-endian buffer. */
+	private ByteBuffer memoryView;
+	/**
+	 * The array behind <tt>memoryView</tt>, or <tt>null</tt> if main memory is
+	 * not on the Java heap.
+	 */
 	private byte[] mainMemory;
+	/**
+	 * Decoded instructions, indexed by physical page and then by word within
+	 * the page. A <tt>null</tt> page or word has not been decoded since it was
+	 * last written.
+	 */
+	private Decoded[][] decodedPages;
+	/**
+	 * Basic blocks, indexed like <tt>decodedPages</tt> by the physical address
+	 * of their first instruction, or <tt>null</tt> if the classic interpreter
+	 * is in use.
+	 */
+	private Block[][] blockPages;
+	/** Translates hot blocks, or <tt>null</tt> if not using the JIT. */
+	private BlockTranslator translator;
+	/** The number of executions after which a block is translated. */
+	private int jitThreshold;
 
 	/** The kernel exception handler, called on every user exception. */
 	private Runnable exceptionHandler = null;
@@ -582,6 +1164,9 @@ public final class Processor {
 	private static final char dbgDisassemble = 'm';
 	private static final char dbgFullDisassemble = 'M';
 
+	private static final int evtException = Trace.event(dbgProcessor,
+			"exception %d, bad vaddr 0x%x, v0 %d");
+
 	private class ProcessorPrivilege implements Privilege.ProcessorPrivilege {
 		public void flushPipe() {
 			finishLoad();
@@ -589,7 +1174,7 @@ public final class Processor {
 	}
 
 	@SuppressWarnings("serial")
-	private class MipsException extends Exception {
+	class MipsException extends Exception {
 		public MipsException(int cause) {
 			Lib.assertTrue(cause >= 0 && cause < exceptionNames.length);
 
@@ -612,6 +1197,8 @@ public final class Processor {
 			if (Lib.test(dbgDisassemble) || Lib.test(dbgFullDisassemble))
 				System.out.println("exception: " + exceptionNames[cause]);
 
+			Trace.record(evtException, cause, badVAddr, registers[regV0]);
+
 			finishLoad();
 
 			Lib.assertTrue(exceptionHandler != null);
@@ -636,6 +1223,18 @@ public final class Processor {
 			writeBack();
 		}
 
+		/**
+		 * Run an instruction that has already been fetched and decoded.
+		 */
+		public void run(Decoded decoded) throws MipsException {
+			this.decoded = decoded;
+			value = decoded.value;
+
+			decode();
+			execute();
+			writeBack();
+		}
+
 		private boolean test(int flag) {
 			return Lib.test(flag, flags);
 		}
@@ -646,78 +1245,55 @@ public final class Processor {
 				System.out.print("PC=0x" + Lib.toHexString(registers[regPC])
 						+ "\t");
 
-			value = readMem(registers[regPC], 4);
+			if (tracing)
+				System.out.println("\treadMem vaddr=0x"
+						+ Lib.toHexString(registers[regPC]) + ", size=4");
+
+			// reuse the decoded form of this word if it has not been written
+			decoded = getDecoded(translateFetch(registers[regPC]));
+			value = decoded.value;
+
+			if (tracing)
+				System.out.println("\t\tvalue read=0x"
+						+ Lib.toHexString(value, 8));
 		}
 
 		private void decode() {
-			op = Lib.extract(value, 26, 6);
-			rs = Lib.extract(value, 21, 5);
-			rt = Lib.extract(value, 16, 5);
-			rd = Lib.extract(value, 11, 5);
-			sh = Lib.extract(value, 6, 5);
-			func = Lib.extract(value, 0, 6);
-			target = Lib.extract(value, 0, 26);
-			imm = Lib.extend(value, 0, 16);
+			Decoded d = decoded;
 
-			Mips info;
-			switch (op) {
-			case 0:
-				info = Mips.specialtable[func];
-				break;
-			case 1:
-				info = Mips.regimmtable[rt];
-				break;
-			default:
-				info = Mips.optable[op];
-				break;
-			}
+			op = d.op;
+			rs = d.rs;
+			rt = d.rt;
+			rd = d.rd;
+			sh = d.sh;
+			func = d.func;
+			target = d.target;
+			imm = d.imm;
 
-			operation = info.operation;
-			name = info.name;
-			format = info.format;
-			flags = info.flags;
+			operation = d.operation;
+			name = d.name;
+			format = d.format;
+			flags = d.flags;
+
+			size = d.size;
+			dstReg = d.dstReg;
 
 			mask = 0xFFFFFFFF;
 			branch = true;
 
-			// get memory access size
-			if (test(Mips.SIZEB))
-				size = 1;
-			else if (test(Mips.SIZEH))
-				size = 2;
-			else if (test(Mips.SIZEW))
-				size = 4;
-			else
-				size = 0;
-
 			// get nextPC
 			nextPC = registers[regNextPC] + 4;
 
-			// get dstReg
-			if (test(Mips.DSTRA))
-				dstReg = regRA;
-			else if (format == Mips.IFMT)
-				dstReg = rt;
-			else if (format == Mips.RFMT)
-				dstReg = rd;
-			else
-				dstReg = -1;
-
 			// get jtarget
 			if (format == Mips.RFMT)
 				jtarget = registers[rs];
 			else if (format == Mips.IFMT)
-				jtarget = registers[regNextPC] + (imm << 2);
+				jtarget = registers[regNextPC] + d.branchOffset;
 			else if (format == Mips.JFMT)
 				jtarget = (registers[regNextPC] & 0xF0000000) | (target << 2);
 			else
 				jtarget = -1;
 
-			// get imm
-			if (test(Mips.UNSIGNED)) {
-				imm &= 0xFFFF;
-			}
-
 			// get addr
 			addr = registers[rs] + imm;
 
@@ -1077,6 +1653,7 @@ public final class Processor {
 		}
 
 		// state used to execute a single instruction
+		Decoded decoded;
 		int value, op, rs, rt, rd, sh, func, target, imm;
 		int operation, format, flags;
 		String name;
@@ -1088,7 +1665,349 @@ public final class Processor {
 		boolean branch;
 	}
 
-	private static class Mips {
+	/**
+	 * The parts of an instruction that depend only on the instruction word,
+	 * and so can be computed once and reused every time the word is executed.
+	 */
+	static class Decoded {
+		Decoded(int value) {
+			this.value = value;
+
+			op = Lib.extract(value, 26, 6);
+			rs = Lib.extract(value, 21, 5);
+			rt = Lib.extract(value, 16, 5);
+			rd = Lib.extract(value, 11, 5);
+			sh = Lib.extract(value, 6, 5);
+			func = Lib.extract(value, 0, 6);
+			target = Lib.extract(value, 0, 26);
+			int signedImm = Lib.extend(value, 0, 16);
+
+			Mips info;
+			switch (op) {
+			case 0:
+				info = Mips.specialtable[func];
+				break;
+			case 1:
+				info = Mips.regimmtable[rt];
+				break;
+			default:
+				info = Mips.optable[op];
+				break;
+			}
+
+			operation = info.operation;
+			name = info.name;
+			format = info.format;
+			flags = info.flags;
+
+			// get memory access size
+			if (Lib.test(Mips.SIZEB, flags))
+				size = 1;
+			else if (Lib.test(Mips.SIZEH, flags))
+				size = 2;
+			else if (Lib.test(Mips.SIZEW, flags))
+				size = 4;
+			else
+				size = 0;
+
+			// get dstReg
+			if (Lib.test(Mips.DSTRA, flags))
+				dstReg = regRA;
+			else if (format == Mips.IFMT)
+				dstReg = rt;
+			else if (format == Mips.RFMT)
+				dstReg = rd;
+			else
+				dstReg = -1;
+
+			// branches always use the sign-extended immediate
+			branchOffset = signedImm << 2;
+
+			// get imm
+			if (Lib.test(Mips.UNSIGNED, flags))
+				imm = signedImm & 0xFFFF;
+			else
+				imm = signedImm;
+		}
+
+		final int value, op, rs, rt, rd, sh, func, target, imm;
+		final int operation, format, flags;
+		final String name;
+
+		final int size, dstReg, branchOffset;
+	}
+
+	/**
+	 * A run of straight-line instructions within one physical page, ending
+	 * with the first branch, jump, syscall or invalid instruction.
+	 */
+	private class Block {
+		Block(int paddr) {
+			ppn = paddr / pageSize;
+
+			ArrayList<Op> list = new ArrayList<Op>();
+
+			int end = (paddr / pageSize + 1) * pageSize;
+			for (; paddr < end; paddr += 4) {
+				Decoded d = getDecoded(paddr);
+				list.add(newOp(d));
+
+				if (Lib.test(Mips.BRANCH, d.flags)
+						|| d.operation == Mips.SYSCALL
+						|| d.operation == Mips.UNIMPL
+						|| d.operation == Mips.INVALID)
+					break;
+			}
+
+			ops = list.toArray(new Op[list.size()]);
+		}
+
+		/**
+		 * Translate this block, which starts at the specified virtual
+		 * address.
+		 */
+		TranslatedBlock translate(int vaddr) {
+			Decoded[] decoded = new Decoded[ops.length];
+			for (int i = 0; i < ops.length; i++)
+				decoded[i] = ops[i].d;
+
+			translation = translator.translate(decoded, vaddr, ppn);
+			return translation;
+		}
+
+		final Op[] ops;
+		final int ppn;
+		boolean valid = true;
+
+		int numExecutions = 0;
+		TranslatedBlock translation = null;
+	}
+
+	/**
+	 * Return the handler for a decoded instruction. Common instructions get a
+	 * specialized handler; everything else is handed back to the interpreter.
+	 */
+	private Op newOp(Decoded d) {
+		switch (d.operation) {
+		case Mips.ADD:
+		case Mips.SUB:
+		case Mips.SLL:
+		case Mips.SRA:
+		case Mips.SRL:
+		case Mips.SLT:
+		case Mips.AND:
+		case Mips.OR:
+		case Mips.NOR:
+		case Mips.XOR:
+		case Mips.LUI:
+			if (!Lib.test(Mips.OVERFLOW, d.flags))
+				return new AluOp(d);
+			break;
+
+		case Mips.LOAD:
+			return new LoadOp(d);
+
+		case Mips.STORE:
+			return new StoreOp(d);
+
+		case Mips.BEQ:
+		case Mips.BNE:
+		case Mips.BLEZ:
+		case Mips.BGTZ:
+		case Mips.BLTZ:
+		case Mips.BGEZ:
+		case Mips.JUMP:
+			if (!Lib.test(Mips.LINK, d.flags))
+				return new BranchOp(d);
+			break;
+		}
+
+		return new InterpretedOp(d);
+	}
+
+	/**
+	 * One instruction of a basic block. Running it has the same effect as
+	 * <tt>Instruction.run()</tt>, minus the fetch: operands are read before the
+	 * pending delayed load completes, and the PC is advanced through nextPC so
+	 * branch delay slots work unchanged. Handlers are shared by every thread
+	 * running the block, so they must not keep per-execution state.
+	 */
+	private abstract class Op {
+		Op(Decoded d) {
+			this.d = d;
+		}
+
+		abstract void run(Instruction inst) throws MipsException;
+
+		final Decoded d;
+	}
+
+	private class InterpretedOp extends Op {
+		InterpretedOp(Decoded d) {
+			super(d);
+		}
+
+		void run(Instruction inst) throws MipsException {
+			inst.run(d);
+		}
+	}
+
+	private class AluOp extends Op {
+		AluOp(Decoded d) {
+			super(d);
+
+			shiftAmount = Lib.test(Mips.SRC1SH, d.flags);
+			immediate = Lib.test(Mips.SRC2IMM, d.flags);
+			unsigned = Lib.test(Mips.UNSIGNED, d.flags);
+		}
+
+		void run(Instruction inst) {
+			long src1 = shiftAmount ? d.sh : registers[d.rs];
+			long src2 = immediate ? d.imm : registers[d.rt];
+			long dst;
+
+			if (unsigned) {
+				src1 &= 0xFFFFFFFFL;
+				src2 &= 0xFFFFFFFFL;
+			}
+
+			switch (d.operation) {
+			case Mips.ADD:
+				dst = src1 + src2;
+				break;
+			case Mips.SUB:
+				dst = src1 - src2;
+				break;
+			case Mips.SLL:
+				dst = src2 << (src1 & 0x1F);
+				break;
+			case Mips.SRA:
+				dst = src2 >> (src1 & 0x1F);
+				break;
+			case Mips.SRL:
+				dst = src2 >>> (src1 & 0x1F);
+				break;
+			case Mips.SLT:
+				dst = (src1 < src2) ? 1 : 0;
+				break;
+			case Mips.AND:
+				dst = src1 & src2;
+				break;
+			case Mips.OR:
+				dst = src1 | src2;
+				break;
+			case Mips.NOR:
+				dst = ~(src1 | src2);
+				break;
+			case Mips.XOR:
+				dst = src1 ^ src2;
+				break;
+			case Mips.LUI:
+				dst = d.imm << 16;
+				break;
+			default:
+				Lib.assertNotReached();
+				return;
+			}
+
+			finishLoad();
+
+			if (d.dstReg != 0)
+				registers[d.dstReg] = (int) dst;
+
+			advancePC(registers[regNextPC] + 4);
+		}
+
+		private final boolean shiftAmount, immediate, unsigned;
+	}
+
+	private class LoadOp extends Op {
+		LoadOp(Decoded d) {
+			super(d);
+
+			unsigned = Lib.test(Mips.UNSIGNED, d.flags);
+		}
+
+		void run(Instruction inst) throws MipsException {
+			int value = readMem(registers[d.rs] + d.imm, d.size);
+
+			if (!unsigned)
+				value = Lib.extend(value, 0, d.size * 8);
+
+			delayedLoad(d.dstReg, value, 0xFFFFFFFF);
+
+			advancePC(registers[regNextPC] + 4);
+		}
+
+		private final boolean unsigned;
+	}
+
+	private class StoreOp extends Op {
+		StoreOp(Decoded d) {
+			super(d);
+		}
+
+		void run(Instruction inst) throws MipsException {
+			writeMem(registers[d.rs] + d.imm, d.size, registers[d.rt]);
+
+			finishLoad();
+
+			advancePC(registers[regNextPC] + 4);
+		}
+	}
+
+	private class BranchOp extends Op {
+		BranchOp(Decoded d) {
+			super(d);
+		}
+
+		void run(Instruction inst) {
+			int src1 = registers[d.rs];
+			int src2 = registers[d.rt];
+			boolean branch;
+
+			switch (d.operation) {
+			case Mips.BEQ:
+				branch = (src1 == src2);
+				break;
+			case Mips.BNE:
+				branch = (src1 != src2);
+				break;
+			case Mips.BGEZ:
+				branch = (src1 >= 0);
+				break;
+			case Mips.BGTZ:
+				branch = (src1 > 0);
+				break;
+			case Mips.BLEZ:
+				branch = (src1 <= 0);
+				break;
+			case Mips.BLTZ:
+				branch = (src1 < 0);
+				break;
+			default:
+				branch = true;
+				break;
+			}
+
+			int nextPC;
+			if (!branch)
+				nextPC = registers[regNextPC] + 4;
+			else if (d.format == Mips.RFMT)
+				nextPC = src1;
+			else if (d.format == Mips.IFMT)
+				nextPC = registers[regNextPC] + d.branchOffset;
+			else
+				nextPC = (registers[regNextPC] & 0xF0000000)
+						| (d.target << 2);
+
+			finishLoad();
+
+			advancePC(nextPC);
+		}
+	}
+
+	static class Mips {
 		Mips() {
 		}
 
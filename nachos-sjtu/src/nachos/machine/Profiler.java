@@ -0,0 +1,257 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A sampling profiler for user programs. Every <tt>interval</tt> user
+ * instructions, the processor reports the PC of the instruction it is about to
+ * execute. Samples are attributed to the COFF section that was last loaded
+ * into the physical page holding the instruction, so that programs sharing the
+ * same virtual addresses are told apart.
+ * 
+ * <p>
+ * The processor never ticks in the middle of a batch of instructions, so it
+ * asks <tt>limit()</tt> how many instructions it may run before the next
+ * sample is due.
+ */
+final class Profiler {
+	/**
+	 * Allocate a new profiler.
+	 * 
+	 * @param processor
+	 *            the processor being profiled.
+	 * @param stats
+	 *            the statistics that count user ticks.
+	 * @param interval
+	 *            the number of user instructions between samples.
+	 * @param numPhysPages
+	 *            the number of pages of physical memory.
+	 */
+	Profiler(Processor processor, Stats stats, int interval, int numPhysPages) {
+		Lib.assertTrue(interval > 0);
+
+		this.processor = processor;
+		this.stats = stats;
+		this.interval = interval;
+
+		nextSample = stats.userTicks + interval;
+		pageSections = new int[numPhysPages];
+		pageVPNs = new int[numPhysPages];
+		Arrays.fill(pageSections, -1);
+
+		keys = new long[initialCapacity];
+		counts = new int[initialCapacity];
+	}
+
+	/**
+	 * Return the number of instructions that can be run before the next sample
+	 * is due, but not more than the specified number.
+	 * 
+	 * @param numBatched
+	 *            the number of instructions the processor wants to run.
+	 * @return the number of instructions it may run.
+	 */
+	int limit(int numBatched) {
+		long left = nextSample - stats.userTicks - 1;
+
+		if (left < numBatched)
+			return (int) Math.max(left, 0);
+		else
+			return numBatched;
+	}
+
+	/**
+	 * Called before the processor executes an instruction that was not part
+	 * of a batch. Takes a sample if one is due.
+	 * 
+	 * @param pc
+	 *            the virtual address of the instruction.
+	 */
+	void step(int pc) {
+		if (stats.userTicks + 1 < nextSample)
+			return;
+
+		nextSample += interval;
+
+		int paddr = processor.peekPhysical(pc);
+		int section = -1;
+
+		// report the address as it appears in the section, if known
+		if (paddr != -1 && pageSections[paddr / Processor.pageSize] != -1) {
+			int ppn = paddr / Processor.pageSize;
+			section = pageSections[ppn];
+			pc = Processor.makeAddress(pageVPNs[ppn], paddr
+					% Processor.pageSize);
+		}
+
+		record(((long) (section + 1) << 32) | (pc & 0xFFFFFFFFL));
+	}
+
+	/**
+	 * Note that a page of a COFF section was loaded into physical memory.
+	 * 
+	 * @param ppn
+	 *            the physical page loaded.
+	 * @param section
+	 *            the section it came from.
+	 * @param spn
+	 *            the page number within the section.
+	 */
+	void pageLoaded(int ppn, CoffSection section, int spn) {
+		String label = section.getCoff().getFileName() + ":"
+				+ section.getName();
+
+		int index = sectionLabels.indexOf(label);
+		if (index == -1) {
+			index = sectionLabels.size();
+			sectionLabels.add(label);
+		}
+
+		pageSections[ppn] = index;
+		pageVPNs[ppn] = section.getFirstVPN() + spn;
+	}
+
+	/**
+	 * Note that a physical page was overwritten with something other than a
+	 * COFF section.
+	 * 
+	 * @param ppn
+	 *            the physical page.
+	 */
+	void pageChanged(int ppn) {
+		pageSections[ppn] = -1;
+	}
+
+	/**
+	 * Print the hottest addresses, and the number of samples in each section.
+	 */
+	void print() {
+		int numEntries = 0;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] != 0)
+				numEntries++;
+		}
+
+		Integer[] entries = new Integer[numEntries];
+		long[] sectionCounts = new long[sectionLabels.size() + 1];
+		for (int i = 0, j = 0; i < counts.length; i++) {
+			if (counts[i] != 0) {
+				entries[j++] = i;
+				sectionCounts[(int) (keys[i] >>> 32)] += counts[i];
+			}
+		}
+
+		Arrays.sort(entries, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return counts[b] - counts[a];
+			}
+		});
+
+		System.out.println("Profile: " + numSamples + " samples, one every "
+				+ interval + " instructions");
+
+		for (int i = 0; i < sectionCounts.length; i++) {
+			if (sectionCounts[i] != 0)
+				System.out.println("  " + percent(sectionCounts[i]) + "  "
+						+ sectionLabel(i));
+		}
+
+		int numShown = Math.min(numEntries, Config.getInteger(
+				"Processor.profileTop", 20));
+		for (int i = 0; i < numShown; i++) {
+			long key = keys[entries[i]];
+			System.out.println("  " + percent(counts[entries[i]]) + "  0x"
+					+ Lib.toHexString((int) key) + "  "
+					+ sectionLabel((int) (key >>> 32)));
+		}
+	}
+
+	private String percent(long count) {
+		long permille = count * 1000 / numSamples;
+
+		return pad("" + count, 8) + pad(permille / 10 + "." + permille % 10
+				+ "%", 8);
+	}
+
+	private static String pad(String s, int width) {
+		while (s.length() < width)
+			s = " " + s;
+
+		return s;
+	}
+
+	private String sectionLabel(int index) {
+		return (index == 0) ? "(unknown)" : sectionLabels.get(index - 1);
+	}
+
+	private void record(long key) {
+		if ((numKeys + 1) * 2 > keys.length)
+			grow();
+
+		int i = slot(keys, counts, key);
+		if (counts[i] == 0) {
+			keys[i] = key;
+			numKeys++;
+		}
+
+		counts[i]++;
+		numSamples++;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldCounts = counts;
+
+		keys = new long[oldKeys.length * 2];
+		counts = new int[oldCounts.length * 2];
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldCounts[i] != 0) {
+				int j = slot(keys, counts, oldKeys[i]);
+				keys[j] = oldKeys[i];
+				counts[j] = oldCounts[i];
+			}
+		}
+	}
+
+	/**
+	 * Return the slot holding the specified key, or the empty slot where it
+	 * belongs. Slots are probed linearly.
+	 */
+	private static int slot(long[] keys, int[] counts, long key) {
+		int mask = keys.length - 1;
+		int hash = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+		int i = (hash ^ (hash >>> 16)) & mask;
+
+		while (counts[i] != 0 && keys[i] != key)
+			i = (i + 1) & mask;
+
+		return i;
+	}
+
+	private Processor processor;
+	private Stats stats;
+	private int interval;
+	/** The value of <tt>stats.userTicks</tt> at which to take a sample. */
+	private long nextSample;
+	private long numSamples = 0;
+
+	/** "file:section" for each section seen so far. */
+	private ArrayList<String> sectionLabels = new ArrayList<String>();
+	/** The index of the section in each physical page, or -1. */
+	private int[] pageSections;
+	/** The virtual page number of each physical page within its section. */
+	private int[] pageVPNs;
+
+	/** Section index + 1 in the high word, address in the low word. */
+	private long[] keys;
+	/** The number of samples for each key, or 0 for an empty slot. */
+	private int[] counts;
+	private int numKeys = 0;
+
+	private static final int initialCapacity = 1024;
+}
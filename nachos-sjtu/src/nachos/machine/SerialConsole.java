@@ -4,8 +4,8 @@ package nachos.machine;
 
 /**
  * A serial console can be used to send and receive characters. Only one
- * character may be sent at a time, and only one character may be received at a
- * time.
+ * character, or one burst of characters, may be sent at a time, and only one
+ * character may be received at a time.
  */
 
 public interface SerialConsole {
@@ -45,4 +45,20 @@ public interface SerialConsole {
 	 *            the byte to be sent (the upper 24 bits are ignored).
 	 */
 	public void writeByte(int value);
+
+	/**
+	 * Send a burst of bytes. The console may accept fewer bytes than offered,
+	 * but always at least one. The send interrupt handler is called once, when
+	 * every byte accepted has been sent. If a byte is already being sent, the
+	 * result is not defined.
+	 * 
+	 * @param buf
+	 *            the buffer holding the bytes to send.
+	 * @param offset
+	 *            the offset in the buffer of the first byte.
+	 * @param length
+	 *            the number of bytes to send. Must be positive.
+	 * @return the number of bytes accepted.
+	 */
+	public int writeBytes(byte[] buf, int offset, int length);
 }
@@ -0,0 +1,221 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The state of the machine once the kernel has booted, saved by
+ * <tt>-snapshot</tt> and loaded by <tt>-restore</tt>.
+ * 
+ * <p>
+ * A snapshot holds the statistics, the state of the random number generator,
+ * main memory, the processor registers and the disk image. Java threads cannot
+ * be saved, so a snapshot does not resume the kernel where it was; instead the
+ * restored machine boots again, and the kernel asks
+ * <tt>Machine.restoredFromSnapshot()</tt> whether it can skip the work whose
+ * results are already on the disk. Pending interrupts are not saved either,
+ * so the devices schedule theirs afresh, relative to the restored time.
+ */
+final class Snapshot {
+	private Snapshot() {
+	}
+
+	/**
+	 * Save the state of the machine to a file.
+	 * 
+	 * @param fileName
+	 *            the file to write.
+	 * @param stats
+	 *            the statistics.
+	 * @param processor
+	 *            the processor, or <tt>null</tt>.
+	 * @param synchDisk
+	 *            the disk, or <tt>null</tt>.
+	 */
+	static void save(String fileName, Stats stats, Processor processor,
+			SynchDisk synchDisk) throws IOException {
+		DataOutputStream out = new DataOutputStream(new GZIPOutputStream(
+				new FileOutputStream(fileName)));
+
+		try {
+			out.writeInt(magic);
+
+			ByteArrayOutputStream statsBytes = new ByteArrayOutputStream();
+			stats.save(new DataOutputStream(statsBytes));
+			writeBytes(out, statsBytes.toByteArray());
+
+			ByteArrayOutputStream random = new ByteArrayOutputStream();
+			ObjectOutputStream objects = new ObjectOutputStream(random);
+			objects.writeObject(Lib.getRandom());
+			objects.close();
+			writeBytes(out, random.toByteArray());
+
+			if (processor != null) {
+				byte[] memory = new byte[processor.getNumPhysPages()
+						* Processor.pageSize];
+				processor.readPhysical(0, memory, 0, memory.length);
+				writeBytes(out, memory);
+
+				for (int i = 0; i < Processor.numUserRegisters; i++)
+					out.writeInt(processor.readRegister(i));
+			} else {
+				out.writeInt(-1);
+			}
+
+			if (synchDisk != null) {
+				byte[] image = new byte[Disk.NumSectors * Disk.SectorSize];
+				synchDisk.disk.readImage(image);
+				writeBytes(out, image);
+			} else {
+				out.writeInt(-1);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Load a snapshot from a file. Nothing is restored until the
+	 * <tt>restore</tt> methods are called.
+	 * 
+	 * @param fileName
+	 *            the file to read.
+	 * @return the snapshot.
+	 */
+	static Snapshot load(String fileName) throws IOException {
+		DataInputStream in = new DataInputStream(new GZIPInputStream(
+				new FileInputStream(fileName)));
+
+		try {
+			Lib.assertTrue(in.readInt() == magic, "not a Nachos snapshot");
+
+			Snapshot snapshot = new Snapshot();
+
+			snapshot.stats = readBytes(in);
+
+			ObjectInputStream objects = new RandomInputStream(
+					new ByteArrayInputStream(readBytes(in)));
+			try {
+				snapshot.random = (Random) objects.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e.toString());
+			}
+
+			snapshot.memory = readBytes(in);
+			if (snapshot.memory != null) {
+				snapshot.registers = new int[Processor.numUserRegisters];
+				for (int i = 0; i < Processor.numUserRegisters; i++)
+					snapshot.registers[i] = in.readInt();
+			}
+
+			snapshot.image = readBytes(in);
+
+			return snapshot;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Restore the statistics and the random number generator. Must be called
+	 * before any device schedules an interrupt.
+	 * 
+	 * @param stats
+	 *            the statistics to overwrite.
+	 */
+	void restoreStats(Stats stats) throws IOException {
+		stats.load(new DataInputStream(new ByteArrayInputStream(this.stats)));
+		Lib.setRandom(random);
+	}
+
+	/**
+	 * Restore main memory and the registers.
+	 * 
+	 * @param processor
+	 *            the processor.
+	 */
+	void restoreProcessor(Processor processor) {
+		Lib.assertTrue(memory != null
+				&& memory.length == processor.getNumPhysPages()
+						* Processor.pageSize,
+				"snapshot has a different amount of memory");
+
+		processor.writePhysical(0, memory, 0, memory.length);
+		for (int i = 0; i < Processor.numUserRegisters; i++)
+			processor.writeRegister(i, registers[i]);
+	}
+
+	/**
+	 * Restore the disk image.
+	 * 
+	 * @param synchDisk
+	 *            the disk.
+	 */
+	void restoreDisk(SynchDisk synchDisk) {
+		Lib.assertTrue(image != null, "snapshot has no disk image");
+
+		synchDisk.disk.writeImage(image);
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] bytes)
+			throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Read an array written by <tt>writeBytes()</tt>, or return <tt>null</tt>
+	 * if a length of -1 was written instead.
+	 */
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length == -1)
+			return null;
+
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Reads the serialized random number generator, refusing to create an
+	 * object of any other class, whatever the snapshot file contains.
+	 */
+	private static class RandomInputStream extends ObjectInputStream {
+		RandomInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		protected Class<?> resolveClass(ObjectStreamClass desc)
+				throws IOException, ClassNotFoundException {
+			if (!desc.getName().equals(Random.class.getName()))
+				throw new InvalidClassException(desc.getName(),
+						"not allowed in a snapshot");
+
+			return super.resolveClass(desc);
+		}
+	}
+
+	private byte[] stats;
+	private Random random;
+	private byte[] memory;
+	private int[] registers;
+	private byte[] image;
+
+	private static final int magic = 0x4E534E50;
+}
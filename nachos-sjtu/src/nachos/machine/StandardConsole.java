@@ -21,6 +21,10 @@ public class StandardConsole implements SerialConsole {
 
 		this.privilege = privilege;
 
+		int burstSize = Config.getInteger("StandardConsole.burstSize", 64);
+		Lib.assertTrue(burstSize > 0);
+		outgoing = new byte[burstSize];
+
 		receiveInterrupt = new Runnable() {
 			public void run() {
 				receiveInterrupt();
@@ -129,13 +133,35 @@ public class StandardConsole implements SerialConsole {
 		System.out.flush();
 	}
 
+	/**
+	 * Write a burst of bytes to the object backing this console. Subclasses
+	 * that override <tt>out(int)</tt> must override this too.
+	 * 
+	 * @param buf
+	 *            the buffer holding the bytes.
+	 * @param offset
+	 *            the offset in the buffer of the first byte.
+	 * @param length
+	 *            the number of bytes to write.
+	 */
+	protected void out(byte[] buf, int offset, int length) {
+		System.out.write(buf, offset, length);
+		System.out.flush();
+	}
+
 	private void sendInterrupt() {
-		Lib.assertTrue(outgoingKey != -1);
+		if (outgoingLength > 0) {
+			out(outgoing, 0, outgoingLength);
+			privilege.stats.numConsoleWrites += outgoingLength;
+			outgoingLength = 0;
+		} else {
+			Lib.assertTrue(outgoingKey != -1);
 
-		out(outgoingKey);
-		outgoingKey = -1;
+			out(outgoingKey);
+			outgoingKey = -1;
 
-		privilege.stats.numConsoleWrites++;
+			privilege.stats.numConsoleWrites++;
+		}
 
 		if (sendInterruptHandler != null)
 			sendInterruptHandler.run();
@@ -148,6 +174,23 @@ public class StandardConsole implements SerialConsole {
 		outgoingKey = value & 0xFF;
 	}
 
+	/**
+	 * Send up to <tt>StandardConsole.burstSize</tt> bytes with a single send
+	 * interrupt. The burst takes as long as sending its bytes one at a time
+	 * would, so only the number of interrupts changes.
+	 */
+	public final int writeBytes(byte[] buf, int offset, int length) {
+		Lib.assertTrue(outgoingKey == -1 && outgoingLength == 0 && length > 0);
+
+		outgoingLength = Math.min(length, outgoing.length);
+		System.arraycopy(buf, offset, outgoing, 0, outgoingLength);
+
+		privilege.interrupt.schedule(Stats.ConsoleTime * outgoingLength,
+				"console write", sendInterrupt);
+
+		return outgoingLength;
+	}
+
 	private Privilege privilege = null;
 
 	private Runnable receiveInterrupt;
@@ -158,6 +201,9 @@ public class StandardConsole implements SerialConsole {
 
 	private int incomingKey = -1;
 	private int outgoingKey = -1;
+	/** The burst being sent by <tt>writeBytes()</tt>. */
+	private byte[] outgoing;
+	private int outgoingLength = 0;
 
 	private boolean prevCarriageReturn = false;
 }
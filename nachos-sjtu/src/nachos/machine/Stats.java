@@ -2,6 +2,10 @@
 
 package nachos.machine;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  * An object that maintains Nachos runtime statistics.
  */
@@ -20,12 +24,82 @@ public final class Stats {
 				+ kernelTicks + ", user " + userTicks);
 		System.out.println("Disk I/O: reads " + numDiskReads + ", writes "
 				+ numDiskWrites);
+		if (numTrackBufferHits + numTrackBufferMisses > 0)
+			System.out.println("Track buffer: hits " + numTrackBufferHits
+					+ ", misses " + numTrackBufferMisses);
+		if (diskPolicy != null)
+			System.out.println("Disk queue (" + diskPolicy + "): requests "
+					+ numDiskRequests + ", average latency "
+					+ (numDiskRequests == 0 ? 0 : diskRequestTicks
+							/ numDiskRequests) + " ticks");
 		System.out.println("Console I/O: reads " + numConsoleReads
 				+ ", writes " + numConsoleWrites);
 		System.out.println("Paging: page faults " + numPageFaults
 				+ ", TLB misses " + numTLBMisses);
+		if (numTLBHitsPerSet != null && numTLBHitsPerSet.length > 1) {
+			System.out.print("TLB sets (hits/misses):");
+			for (int i = 0; i < numTLBHitsPerSet.length; i++)
+				System.out.print(" " + numTLBHitsPerSet[i] + "/"
+						+ numTLBMissesPerSet[i]);
+			System.out.println();
+		}
 		System.out.println("Network I/O: received " + numPacketsReceived
 				+ ", sent " + numPacketsSent);
+		if (numThreadsReused > 0)
+			System.out.println("Threads: created " + numThreadsCreated
+					+ ", reused " + numThreadsReused);
+	}
+
+	/**
+	 * Write the statistics, for a snapshot.
+	 * 
+	 * @param out
+	 *            the stream to write to.
+	 */
+	void save(DataOutputStream out) throws IOException {
+		out.writeLong(totalTicks);
+		out.writeLong(kernelTicks);
+		out.writeLong(userTicks);
+		out.writeInt(numDiskReads);
+		out.writeInt(numDiskWrites);
+		out.writeInt(numTrackBufferHits);
+		out.writeInt(numTrackBufferMisses);
+		out.writeInt(numDiskRequests);
+		out.writeLong(diskRequestTicks);
+		out.writeInt(numConsoleReads);
+		out.writeInt(numConsoleWrites);
+		out.writeInt(numPageFaults);
+		out.writeInt(numTLBMisses);
+		out.writeInt(numPacketsSent);
+		out.writeInt(numPacketsReceived);
+		out.writeInt(numThreadsCreated);
+		out.writeInt(numThreadsReused);
+	}
+
+	/**
+	 * Read statistics written by <tt>save()</tt>, replacing these ones.
+	 * 
+	 * @param in
+	 *            the stream to read from.
+	 */
+	void load(DataInputStream in) throws IOException {
+		totalTicks = in.readLong();
+		kernelTicks = in.readLong();
+		userTicks = in.readLong();
+		numDiskReads = in.readInt();
+		numDiskWrites = in.readInt();
+		numTrackBufferHits = in.readInt();
+		numTrackBufferMisses = in.readInt();
+		numDiskRequests = in.readInt();
+		diskRequestTicks = in.readLong();
+		numConsoleReads = in.readInt();
+		numConsoleWrites = in.readInt();
+		numPageFaults = in.readInt();
+		numTLBMisses = in.readInt();
+		numPacketsSent = in.readInt();
+		numPacketsReceived = in.readInt();
+		numThreadsCreated = in.readInt();
+		numThreadsReused = in.readInt();
 	}
 
 	/**
@@ -45,6 +119,22 @@ public final class Stats {
 	public int numDiskReads = 0;
 	/** The total number of sectors Nachos has written to the simulated disk. */
 	public int numDiskWrites = 0;
+	/** The number of disk reads served from the track buffer. */
+	public int numTrackBufferHits = 0;
+	/** The number of disk reads that missed the track buffer. */
+	public int numTrackBufferMisses = 0;
+	/**
+	 * The scheduling policy of the disk request queue, or <tt>null</tt> if
+	 * requests are not queued.
+	 */
+	public String diskPolicy = null;
+	/** The number of requests served from the disk request queue. */
+	public int numDiskRequests = 0;
+	/**
+	 * The total time queued disk requests took, from being queued to
+	 * finishing.
+	 */
+	public long diskRequestTicks = 0;
 	/** The total number of characters Nachos has read from the console. */
 	public int numConsoleReads = 0;
 	/** The total number of characters Nachos has written to the console. */
@@ -53,10 +143,24 @@ public final class Stats {
 	public int numPageFaults = 0;
 	/** The total number of TLB misses that have occurred. */
 	public int numTLBMisses = 0;
+	/**
+	 * The number of TLB hits in each set of the TLB, or <tt>null</tt> if there
+	 * is no TLB.
+	 */
+	public long[] numTLBHitsPerSet = null;
+	/**
+	 * The number of TLB misses in each set of the TLB, or <tt>null</tt> if
+	 * there is no TLB.
+	 */
+	public long[] numTLBMissesPerSet = null;
 	/** The total number of packets Nachos has sent to the network. */
 	public int numPacketsSent = 0;
 	/** The total number of packets Nachos has received from the network. */
 	public int numPacketsReceived = 0;
+	/** The number of Java threads created to run TCBs. */
+	public int numThreadsCreated = 0;
+	/** The number of times a pooled Java thread was reused to run a TCB. */
+	public int numThreadsReused = 0;
 
 	/**
 	 * The amount to advance simulated time after each user instructions is
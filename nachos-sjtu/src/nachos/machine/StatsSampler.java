@@ -0,0 +1,135 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Records the statistics every so many ticks, so that rates can be plotted
+ * over the course of a run rather than only their totals at the end.
+ * 
+ * <p>
+ * The timer interrupt calls <tt>timerInterrupt()</tt>, and the first one after
+ * each interval has passed takes a sample, so sampling schedules no interrupts
+ * of its own and does not change how the run proceeds. Samples are kept in a
+ * ring buffer of fixed size, which keeps the most recent ones once it is full.
+ * Each sample holds the counters as they stood at the time of the sample;
+ * subtracting consecutive samples gives the activity in each interval.
+ */
+final class StatsSampler {
+	/**
+	 * Allocate a new sampler.
+	 * 
+	 * @param stats
+	 *            the statistics to sample.
+	 * @param interval
+	 *            the number of ticks between samples.
+	 * @param capacity
+	 *            the number of samples to keep.
+	 */
+	StatsSampler(Stats stats, long interval, int capacity) {
+		Lib.assertTrue(interval > 0 && capacity > 0);
+
+		this.stats = stats;
+		this.interval = interval;
+		this.capacity = capacity;
+
+		samples = new long[capacity * columns.length];
+		nextSample = stats.totalTicks;
+	}
+
+	/**
+	 * Called on every timer interrupt. Takes a sample if another interval has
+	 * passed since the last one.
+	 */
+	void timerInterrupt() {
+		if (stats.totalTicks >= nextSample) {
+			sample();
+			nextSample = stats.totalTicks - stats.totalTicks % interval
+					+ interval;
+		}
+	}
+
+	/**
+	 * Take a sample now.
+	 */
+	void sample() {
+		int i = (int) (numSamples % capacity) * columns.length;
+
+		samples[i++] = stats.totalTicks;
+		samples[i++] = stats.kernelTicks;
+		samples[i++] = stats.userTicks;
+		samples[i++] = stats.numDiskReads;
+		samples[i++] = stats.numDiskWrites;
+		samples[i++] = stats.numConsoleReads;
+		samples[i++] = stats.numConsoleWrites;
+		samples[i++] = stats.numPageFaults;
+		samples[i++] = stats.numTLBMisses;
+		samples[i++] = stats.numPacketsReceived;
+		samples[i++] = stats.numPacketsSent;
+
+		numSamples++;
+	}
+
+	/**
+	 * Write the samples kept, oldest first. A name ending in <tt>.json</tt> or
+	 * <tt>.jsonl</tt> selects JSON lines, with one object per sample;
+	 * otherwise the samples are written as CSV, with a header line.
+	 * 
+	 * @param fileName
+	 *            the file to write.
+	 */
+	void write(String fileName) throws IOException {
+		boolean json = fileName.endsWith(".json") || fileName.endsWith(".jsonl");
+
+		PrintWriter out = new PrintWriter(new FileWriter(fileName));
+
+		try {
+			if (!json) {
+				for (int j = 0; j < columns.length; j++)
+					out.print((j == 0 ? "" : ",") + columns[j]);
+				out.print("\n");
+			}
+
+			long first = Math.max(0, numSamples - capacity);
+			for (long n = first; n < numSamples; n++) {
+				int i = (int) (n % capacity) * columns.length;
+
+				out.print(json ? "{" : "");
+				for (int j = 0; j < columns.length; j++) {
+					if (j > 0)
+						out.print(",");
+					if (json)
+						out.print("\"" + columns[j] + "\":");
+					out.print(samples[i + j]);
+				}
+				out.print(json ? "}\n" : "\n");
+			}
+		} finally {
+			out.close();
+		}
+
+		// PrintWriter keeps write errors to itself
+		if (out.checkError())
+			throw new IOException("error writing " + fileName);
+	}
+
+	/** The counters in each sample, in order. */
+	private static final String[] columns = { "ticks", "kernelTicks",
+			"userTicks", "diskReads", "diskWrites", "consoleReads",
+			"consoleWrites", "pageFaults", "tlbMisses", "packetsReceived",
+			"packetsSent" };
+
+	private Stats stats;
+	private long interval;
+	private int capacity;
+
+	/** The samples, <tt>columns.length</tt> values each. */
+	private long[] samples;
+	/** The number of samples taken, including any since overwritten. */
+	private long numSamples = 0;
+	/** The earliest time at which the next sample is due. */
+	private long nextSample;
+}
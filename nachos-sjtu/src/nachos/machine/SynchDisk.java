@@ -1,5 +1,7 @@
 package nachos.machine;
 
+import java.util.ArrayList;
+
 import nachos.security.Privilege;
 import nachos.threads.Lock;
 import nachos.threads.Semaphore;
@@ -32,6 +34,18 @@ import nachos.threads.Semaphore;
 // This class provides the abstraction that for any individual thread
 // making a request, it waits around until the operation finishes before
 // returning.
+//
+// Normally requests are served one at a time, in the order the requesting
+// threads get the lock. If SynchDisk.policy names a scheduling policy,
+// requests instead wait in a queue, and each time the disk finishes one, the
+// policy picks the next by track:
+//
+//   fcfs  -- in the order the requests arrived
+//   sstf  -- the request closest to the head
+//   scan  -- the closest request in the direction the head is moving,
+//            reversing when there are none left that way
+//   clook -- the closest request at or above the head, going back to the
+//            lowest track when there are none left
 public class SynchDisk {
 
 	Disk disk; // Raw disk device
@@ -44,6 +58,23 @@ public class SynchDisk {
 	// can be sent to the disk at a time
 	SynchDiskIntHandler handler; // internal handler
 
+	private Privilege privilege;
+
+	private int policy; // one of the policy constants, or -1 to use the lock
+
+	private ArrayList<Request> queue = new ArrayList<Request>(); // waiting
+
+	private Request current; // the request the disk is serving, if any
+
+	private int headTrack = 0; // track of the last request started
+
+	private boolean headMovingUp = true; // direction of the scan policy
+
+	private static final String[] policyNames = { "fcfs", "sstf", "scan",
+			"clook" };
+
+	private static final int FCFS = 0, SSTF = 1, SCAN = 2, CLOOK = 3;
+
 	// ----------------------------------------------------------------------
 	// SynchDisk
 	// Initialize the synchronous interface to the physical disk, in turn
@@ -55,9 +86,22 @@ public class SynchDisk {
 
 	public SynchDisk(Privilege privilege, String name) {
 
+		this.privilege = privilege;
 		handler = new SynchDiskIntHandler(this);
 		disk = new Disk(privilege, name, handler);
 
+		String policyName = Config.getString("SynchDisk.policy", "lock");
+		policy = -1;
+		for (int i = 0; i < policyNames.length; i++) {
+			if (policyNames[i].equals(policyName))
+				policy = i;
+		}
+		Lib.assertTrue(policy != -1 || policyName.equals("lock"),
+				"SynchDisk.policy must be lock, fcfs, sstf, scan or clook");
+
+		if (policy != -1)
+			privilege.stats.diskPolicy = policyName;
+
 	}
 
 	// ----------------------------------------------------------------------
@@ -70,8 +114,24 @@ public class SynchDisk {
 	// ----------------------------------------------------------------------
 
 	public void readSector(int sectorNumber, byte[] data, int index) {
+		readSectors(sectorNumber, 1, data, index);
+	}
+
+	// ----------------------------------------------------------------------
+	// readSectors
+	// Read "numSectors" consecutive sectors, starting at "sectorNumber",
+	// into consecutive bytes of "data", as a single disk request.
+	// ----------------------------------------------------------------------
+
+	public void readSectors(int sectorNumber, int numSectors, byte[] data,
+			int index) {
+		if (policy != -1) {
+			request(new Request(sectorNumber, numSectors, data, index, false));
+			return;
+		}
+
 		lock().acquire(); // only one disk I/O at a time
-		disk.readRequest(sectorNumber, data, index);
+		disk.readRequest(sectorNumber, numSectors, data, index);
 		semaphore().P(); // wait for interrupt
 		lock().release();
 	}
@@ -98,12 +158,38 @@ public class SynchDisk {
 	// ----------------------------------------------------------------------
 
 	public void writeSector(int sectorNumber, byte[] data, int index) {
+		writeSectors(sectorNumber, 1, data, index);
+	}
+
+	// ----------------------------------------------------------------------
+	// writeSectors
+	// Write consecutive bytes of "data" into "numSectors" consecutive
+	// sectors, starting at "sectorNumber", as a single disk request.
+	// ----------------------------------------------------------------------
+
+	public void writeSectors(int sectorNumber, int numSectors, byte[] data,
+			int index) {
+		if (policy != -1) {
+			request(new Request(sectorNumber, numSectors, data, index, true));
+			return;
+		}
+
 		lock().acquire(); // only one disk I/O at a time
-		disk.writeRequest(sectorNumber, data, index);
+		disk.writeRequest(sectorNumber, numSectors, data, index);
 		semaphore().P(); // wait for interrupt
 		lock().release();
 	}
 
+	// ----------------------------------------------------------------------
+	// flush
+	// Write any data the disk is holding in memory back to its UNIX file.
+	// Called when the machine halts.
+	// ----------------------------------------------------------------------
+
+	public void flush() {
+		disk.flush();
+	}
+
 	// ----------------------------------------------------------------------
 	// requestDone
 	// Disk interrupt handler. Wake up any thread waiting for the disk
@@ -111,7 +197,134 @@ public class SynchDisk {
 	// ----------------------------------------------------------------------
 
 	public void requestDone() {
-		semaphore().V();
+		if (policy == -1) {
+			semaphore().V();
+			return;
+		}
+
+		Request done = current;
+		current = null;
+
+		privilege.stats.numDiskRequests++;
+		privilege.stats.diskRequestTicks += privilege.stats.totalTicks
+				- done.queuedAt;
+
+		if (!queue.isEmpty())
+			start(queue.remove(pickNext()));
+
+		done.finished.V();
+	}
+
+	// ----------------------------------------------------------------------
+	// request
+	// Queue a request, start it if the disk is idle, and wait for it to
+	// finish. Interrupts stay off until the request is queued and its
+	// requester asleep, so the interrupt handler never sees a half-queued
+	// request.
+	// ----------------------------------------------------------------------
+
+	private void request(Request request) {
+		boolean intStatus = Machine.interrupt().disable();
+
+		request.queuedAt = privilege.stats.totalTicks;
+		if (current == null)
+			start(request);
+		else
+			queue.add(request);
+
+		request.finished.P();
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	private void start(Request request) {
+		current = request;
+
+		int track = request.sectorNumber / Disk.SectorsPerTrack;
+		if (track != headTrack)
+			headMovingUp = track > headTrack;
+		headTrack = track;
+
+		if (request.writing)
+			disk.writeRequest(request.sectorNumber, request.numSectors,
+					request.data, request.index);
+		else
+			disk.readRequest(request.sectorNumber, request.numSectors,
+					request.data, request.index);
+	}
+
+	// ----------------------------------------------------------------------
+	// pickNext
+	// Return the index in the queue of the request to serve next. Ties go
+	// to the request that has waited longest.
+	// ----------------------------------------------------------------------
+
+	private int pickNext() {
+		if (policy == FCFS)
+			return 0;
+
+		if (policy == SSTF) {
+			int best = 0;
+			for (int i = 1; i < queue.size(); i++) {
+				if (Math.abs(track(i) - headTrack) < Math.abs(track(best)
+						- headTrack))
+					best = i;
+			}
+			return best;
+		}
+
+		if (policy == SCAN) {
+			int next = nextInDirection(headMovingUp);
+			return (next != -1) ? next : nextInDirection(!headMovingUp);
+		}
+
+		// C-LOOK: only serve requests on the way up
+		int next = nextInDirection(true);
+		if (next != -1)
+			return next;
+
+		int lowest = 0;
+		for (int i = 1; i < queue.size(); i++) {
+			if (track(i) < track(lowest))
+				lowest = i;
+		}
+		return lowest;
+	}
+
+	// return the closest queued request at or beyond the head in the given
+	// direction, or -1 if there is none
+	private int nextInDirection(boolean up) {
+		int best = -1;
+		for (int i = 0; i < queue.size(); i++) {
+			int distance = up ? track(i) - headTrack : headTrack - track(i);
+			if (distance >= 0
+					&& (best == -1 || distance < Math.abs(track(best) - headTrack)))
+				best = i;
+		}
+		return best;
+	}
+
+	private int track(int i) {
+		return queue.get(i).sectorNumber / Disk.SectorsPerTrack;
+	}
+
+	private static class Request {
+		Request(int sectorNumber, int numSectors, byte[] data, int index,
+				boolean writing) {
+			this.sectorNumber = sectorNumber;
+			this.numSectors = numSectors;
+			this.data = data;
+			this.index = index;
+			this.writing = writing;
+		}
+
+		int sectorNumber;
+		int numSectors;
+		byte[] data;
+		int index;
+		boolean writing;
+		long queuedAt; // when the request was queued
+		Semaphore finished = new Semaphore(0); // V'd when the disk is done
 	}
 
 }
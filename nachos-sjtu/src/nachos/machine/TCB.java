@@ -2,7 +2,9 @@
 
 package nachos.machine;
 
+import java.lang.reflect.Method;
 import java.util.Vector;
+import java.util.concurrent.locks.LockSupport;
 
 import nachos.security.Privilege;
 import nachos.threads.KThread;
@@ -39,6 +41,37 @@ public final class TCB {
 	public static void givePrivilege(Privilege privilege) {
 		TCB.privilege = privilege;
 		privilege.tcb = new TCBPrivilege();
+
+		String threads = Config.getString("TCB.threads", "platform");
+		String handoff = Config.getString("TCB.handoff", "monitor");
+		Lib.assertTrue(threads.equals("platform") || threads.equals("virtual"),
+				"TCB.threads must be platform or virtual");
+		Lib.assertTrue(handoff.equals("monitor") || handoff.equals("park"),
+				"TCB.handoff must be monitor or park");
+
+		stackSize = Config.getInteger("TCB.stackSize", 0);
+		Lib.assertTrue(stackSize >= 0);
+
+		poolSize = Config.getInteger("TCB.poolSize", 0);
+		Lib.assertTrue(poolSize >= 0);
+
+		if (threads.equals("virtual")) {
+			try {
+				virtualBuilder = Thread.class.getMethod("ofVirtual").invoke(
+						null);
+				unstarted = Class.forName("java.lang.Thread$Builder")
+						.getMethod("unstarted", Runnable.class);
+			} catch (Exception e) {
+				System.out.println("TCB: virtual threads are not supported by "
+						+ "this JVM; using platform threads");
+			}
+		}
+
+		/*
+		 * A virtual thread blocked in wait() keeps its carrier thread, so
+		 * virtual threads always hand off with park() and unpark().
+		 */
+		parkHandoff = handoff.equals("park") || virtualBuilder != null;
 	}
 
 	/**
@@ -91,31 +124,44 @@ public final class TCB {
 
 		if (!isFirstTCB) {
 			/*
-			 * If this is not the first TCB, we have to make a new Java thread
-			 * to run it. Creating Java threads is a privileged operation.
+			 * If this is not the first TCB, we need a Java thread to run it.
+			 * We reuse an idle one from the pool if there is one, and
+			 * otherwise make a new one. Creating Java threads is a privileged
+			 * operation.
 			 */
-			tcbTarget = new Runnable() {
-				public void run() {
-					threadroot();
-				}
-			};
+			boolean reused = !idleWorkers.isEmpty();
+
+			if (reused) {
+				worker = idleWorkers.remove(idleWorkers.size() - 1);
+				privilege.stats.numThreadsReused++;
+			} else {
+				worker = new Worker();
+
+				privilege.doPrivileged(new Runnable() {
+					public void run() {
+						worker.thread = newThread(worker);
+					}
+				});
+				privilege.stats.numThreadsCreated++;
+			}
 
-			privilege.doPrivileged(new Runnable() {
-				public void run() {
-					javaThread = new Thread(tcbTarget);
-				}
-			});
+			javaThread = worker.thread;
 
 			/*
-			 * The Java thread hasn't yet started, but we need to get it
-			 * blocking in yield(). We do this by temporarily turning off the
-			 * current TCB, starting the new Java thread, and waiting for it to
-			 * wake us up from threadroot(). Once the new TCB wakes us up, it's
-			 * safe to context switch to the new TCB.
+			 * The Java thread isn't running this TCB yet, but we need to get
+			 * it blocking in yield(). We do this by temporarily turning off
+			 * the current TCB, handing this TCB to the Java thread, and
+			 * waiting for it to wake us up from threadroot(). Once the new TCB
+			 * wakes us up, it's safe to context switch to the new TCB.
 			 */
 			currentTCB.running = false;
 
-			this.javaThread.start();
+			worker.next = this;
+			if (reused)
+				LockSupport.unpark(javaThread);
+			else
+				javaThread.start();
+
 			currentTCB.waitForInterrupt();
 		} else {
 			/*
@@ -189,6 +235,15 @@ public final class TCB {
 		Lib.assertTrue(nachosThread == toBeDestroyed);
 		toBeDestroyed = null;
 
+		/*
+		 * Keep the Java thread for a later TCB if the pool has room. It goes
+		 * back to waiting for a TCB once threadroot() has cleaned up.
+		 */
+		if (worker != null && idleWorkers.size() < poolSize) {
+			worker.pooled = true;
+			idleWorkers.add(worker);
+		}
+
 		this.done = true;
 		currentTCB.running = false;
 
@@ -205,6 +260,27 @@ public final class TCB {
 		privilege.exit(0);
 	}
 
+	/**
+	 * Make every other Java thread of this machine exit, so that a machine
+	 * that shares its JVM with others leaves no threads behind when it exits.
+	 * Each waiting TCB is woken as if it had been destroyed, and idle pooled
+	 * threads are told to stop waiting for work. Called by the exiting thread,
+	 * which must then unwind itself by throwing <tt>ThreadDeath</tt>.
+	 */
+	static void killAll() {
+		dead = true;
+
+		for (TCB tcb : runningThreads.toArray(new TCB[0])) {
+			if (tcb.javaThread != Thread.currentThread()) {
+				tcb.done = true;
+				tcb.interrupt();
+			}
+		}
+
+		for (Worker worker : idleWorkers.toArray(new Worker[0]))
+			LockSupport.unpark(worker.thread);
+	}
+
 	/**
 	 * Test if the current JVM thread belongs to a Nachos TCB. The AWT event
 	 * dispatcher is an example of a non-Nachos thread.
@@ -246,9 +322,14 @@ public final class TCB {
 			// no way out of here without going throw one of the catch blocks
 			Lib.assertNotReached();
 		} catch (ThreadDeath e) {
+			// the machine has exited, and killAll() woke us to clean up
+			if (dead)
+				return;
+
 			// make sure this TCB is being destroyed properly
 			if (!done) {
 				System.out.print("\nTCB terminated improperly!\n");
+				Trace.dump();
 				privilege.exit(1);
 			}
 
@@ -258,6 +339,7 @@ public final class TCB {
 		} catch (Throwable e) {
 			System.out.print("\n");
 			e.printStackTrace();
+			Trace.dump();
 
 			runningThreads.removeElement(this);
 			if (runningThreads.isEmpty())
@@ -293,8 +375,21 @@ public final class TCB {
 	 * process of starting and destroying TCBs, as well as in context switching
 	 * from this TCB to another. We don't rely on <tt>currentTCB</tt>, since it
 	 * is updated by <tt>contextSwitch()</tt> before we get called.
+	 * 
+	 * <p>
+	 * With the park handoff, the thread parks itself instead, and
+	 * <tt>running</tt> being volatile takes the place of the monitor.
 	 */
-	private synchronized void waitForInterrupt() {
+	private void waitForInterrupt() {
+		if (parkHandoff) {
+			while (!running)
+				LockSupport.park(this);
+		} else {
+			waitOnMonitor();
+		}
+	}
+
+	private synchronized void waitOnMonitor() {
 		while (!running) {
 			try {
 				wait();
@@ -305,15 +400,43 @@ public final class TCB {
 
 	/**
 	 * Wake up this TCB by setting its <tt>running</tt> flag to <tt>true</tt>
-	 * and signalling the monitor bound to it. Used in the ping-pong process of
-	 * starting and destroying TCBs, as well as in context switching to this
-	 * TCB.
+	 * and signalling the monitor bound to it, or unparking its thread. Used in
+	 * the ping-pong process of starting and destroying TCBs, as well as in
+	 * context switching to this TCB.
 	 */
-	private synchronized void interrupt() {
+	private void interrupt() {
+		if (parkHandoff) {
+			running = true;
+			LockSupport.unpark(javaThread);
+		} else {
+			notifyMonitor();
+		}
+	}
+
+	private synchronized void notifyMonitor() {
 		running = true;
 		notify();
 	}
 
+	/**
+	 * Create the Java thread for a TCB, as selected by <tt>TCB.threads</tt>.
+	 * Must be called with privilege.
+	 */
+	private static Thread newThread(Runnable target) {
+		if (virtualBuilder != null) {
+			try {
+				return (Thread) unstarted.invoke(virtualBuilder, target);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		if (stackSize > 0)
+			return new Thread(null, target, "TCB-" + numCreated++, stackSize);
+		else
+			return new Thread(target);
+	}
+
 	private void associateThread(KThread thread) {
 		// make sure AutoGrader.runningThread() gets called only once per
 		// context switch
@@ -373,6 +496,22 @@ public final class TCB {
 	private static Privilege privilege;
 	private static KThread toBeDestroyed = null;
 
+	/** <tt>true</tt> to hand off with <tt>LockSupport</tt>, not monitors. */
+	private static boolean parkHandoff = false;
+	/** The stack size of new platform threads, or 0 for the JVM default. */
+	private static long stackSize = 0;
+	private static int numCreated = 0;
+	/** The maximum number of idle Java threads kept for reuse. */
+	private static int poolSize = 0;
+	/** Java threads waiting for a TCB to run. */
+	private static Vector<Worker> idleWorkers = new Vector<Worker>();
+	/** Set by <tt>killAll()</tt> once the machine has exited. */
+	private static volatile boolean dead = false;
+	/** A <tt>Thread.Builder</tt> for virtual threads, if they are used. */
+	private static Object virtualBuilder = null;
+	/** <tt>Thread.Builder.unstarted(Runnable)</tt>. */
+	private static Method unstarted = null;
+
 	/**
 	 * <tt>true</tt> if and only if this TCB is the first TCB to start, the one
 	 * started in <tt>Machine.main(String[])</tt>. Initialized by
@@ -397,7 +536,7 @@ public final class TCB {
 	 * TCB, this is temporarily true for a thread other than that of the current
 	 * TCB.
 	 */
-	private boolean running = false;
+	private volatile boolean running = false;
 
 	/**
 	 * Set to <tt>true</tt> by <tt>destroy()</tt>, so that when
@@ -409,7 +548,39 @@ public final class TCB {
 	private KThread nachosThread = null;
 	private boolean associated = false;
 	private Runnable target;
-	private Runnable tcbTarget;
+	/** The pooled Java thread running this TCB, or <tt>null</tt>. */
+	private Worker worker = null;
+
+	/**
+	 * The body of a Java thread that runs TCBs. After the TCB it is running
+	 * is destroyed, the thread either exits or, if <tt>destroy()</tt> put it
+	 * in the pool, parks until <tt>start()</tt> hands it another TCB.
+	 */
+	private static final class Worker implements Runnable {
+		public void run() {
+			while (true) {
+				TCB tcb;
+				while ((tcb = next) == null) {
+					if (dead)
+						return;
+					LockSupport.park(this);
+				}
+				next = null;
+
+				tcb.threadroot();
+
+				if (!pooled || dead)
+					return;
+				pooled = false;
+			}
+		}
+
+		private Thread thread;
+		/** The next TCB to run, set by <tt>start()</tt>. */
+		private volatile TCB next = null;
+		/** Set by <tt>destroy()</tt> if this thread is kept in the pool. */
+		private volatile boolean pooled = false;
+	}
 
 	private static class TCBPrivilege implements Privilege.TCBPrivilege {
 		public void associateThread(KThread thread) {
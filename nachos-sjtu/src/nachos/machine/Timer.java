@@ -68,6 +68,9 @@ public final class Timer {
 
 		lastTimerInterrupt = getTime();
 
+		if (sampler != null)
+			sampler.timerInterrupt();
+
 		if (handler != null)
 			handler.run();
 	}
@@ -89,4 +92,7 @@ public final class Timer {
 
 	private Privilege privilege;
 	private Runnable handler = null;
+
+	/** Samples the statistics, if <tt>Stats.sampleInterval</tt> is set. */
+	StatsSampler sampler = null;
 }
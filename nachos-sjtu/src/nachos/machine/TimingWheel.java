@@ -0,0 +1,342 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * A priority queue of timed events, ordered by time and then by id, built as
+ * a two-level timing wheel.
+ * 
+ * <p>
+ * Time is divided into blocks of <tt>numSlots</tt> ticks. The first level has
+ * one slot for each tick of the current block, the second one slot for each
+ * of the following <tt>numSlots - 1</tt> blocks, and events further in the
+ * future wait in an ordered overflow set. Each slot is a FIFO list. Because
+ * ids increase in the order events are scheduled, and an event only moves to
+ * a finer level before any event can be scheduled directly into the slot it
+ * moves to, every first-level slot is kept in id order. Scheduling is
+ * therefore a constant-time append, and the first event is found from an
+ * occupancy bitmap.
+ * 
+ * <p>
+ * Events must never be scheduled in the past, and the owner must call
+ * <tt>advance()</tt> as time passes, before removing due events.
+ */
+final class TimingWheel {
+	/**
+	 * Allocate a new, empty timing wheel.
+	 */
+	TimingWheel() {
+	}
+
+	/**
+	 * An event that can be queued in a timing wheel.
+	 */
+	static class Event {
+		/**
+		 * Allocate a new event.
+		 * 
+		 * @param time
+		 *            the time at which the event occurs.
+		 * @param id
+		 *            breaks ties between events at the same time. Must be
+		 *            greater than the id of every event scheduled earlier.
+		 */
+		Event(long time, long id) {
+			this.time = time;
+			this.id = id;
+		}
+
+		/** The time at which this event occurs. */
+		final long time;
+		/** Orders events that occur at the same time. */
+		final long id;
+		/** The next event in the same slot. */
+		private Event next;
+	}
+
+	/**
+	 * Test whether this wheel has no events.
+	 * 
+	 * @return <tt>true</tt> if there are no events.
+	 */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Add an event.
+	 * 
+	 * @param event
+	 *            the event to add. Its time must not be earlier than the time
+	 *            last passed to <tt>advance()</tt>.
+	 */
+	void add(Event event) {
+		long eventBlock = event.time >> slotBits;
+		Lib.assertTrue(eventBlock >= block);
+
+		if (eventBlock == block) {
+			append(heads, tails, occupied, (int) event.time & slotMask, event);
+			count++;
+		} else if (eventBlock < block + numSlots) {
+			append(futureHeads, futureTails, futureOccupied, (int) eventBlock
+					& slotMask, event);
+			futureCount++;
+		} else {
+			overflow.add(event);
+		}
+
+		size++;
+
+		if (first != null && before(event, first))
+			first = event;
+	}
+
+	/**
+	 * Return the event with the earliest time, and the lowest id among those.
+	 * 
+	 * @return the first event, or <tt>null</tt> if there are no events.
+	 */
+	Event first() {
+		if (first == null && size > 0)
+			first = findFirst();
+
+		return first;
+	}
+
+	/**
+	 * Remove and return the first event.
+	 * 
+	 * @return the event removed.
+	 */
+	Event removeFirst() {
+		Event event = first();
+		Lib.assertTrue(event != null);
+
+		long eventBlock = event.time >> slotBits;
+
+		if (eventBlock == block) {
+			int slot = (int) event.time & slotMask;
+			Lib.assertTrue(heads[slot] == event);
+			remove(heads, tails, occupied, slot, event);
+			count--;
+		} else if (eventBlock < block + numSlots) {
+			remove(futureHeads, futureTails, futureOccupied, (int) eventBlock
+					& slotMask, event);
+			futureCount--;
+		} else {
+			overflow.remove(event);
+		}
+
+		size--;
+		first = null;
+
+		return event;
+	}
+
+	/**
+	 * Note that the current time is now <i>time</i>, so that events in later
+	 * blocks can move to the first level. Events that are already due are
+	 * left where they are until they have been removed.
+	 * 
+	 * @param time
+	 *            the current time.
+	 */
+	void advance(long time) {
+		long target = time >> slotBits;
+
+		while (block < target && count == 0) {
+			// skip blocks that nothing would move into
+			long skipTo = target;
+			if (futureCount > 0)
+				skipTo = Math.min(skipTo, block + 1
+						+ ((nextFutureSlot() - (int) (block + 1)) & slotMask));
+			if (!overflow.isEmpty())
+				skipTo = Math.min(skipTo, (overflow.first().time >> slotBits)
+						- numSlots + 1);
+
+			if (skipTo - 1 > block)
+				block = skipTo - 1;
+
+			nextBlock();
+		}
+	}
+
+	/**
+	 * Return every event, in order, for debugging.
+	 * 
+	 * @return a list of all the events.
+	 */
+	List<Event> toList() {
+		ArrayList<Event> events = new ArrayList<Event>(size);
+
+		for (Event[] slots : new Event[][] { heads, futureHeads }) {
+			for (Event head : slots) {
+				for (Event event = head; event != null; event = event.next)
+					events.add(event);
+			}
+		}
+		events.addAll(overflow);
+
+		Collections.sort(events, order);
+		return events;
+	}
+
+	private Event findFirst() {
+		if (count > 0)
+			return heads[nextOccupied(occupied, 0)];
+
+		if (futureCount > 0) {
+			// future slots hold a whole block, so look at every event
+			Event earliest = futureHeads[nextFutureSlot()];
+			for (Event event = earliest.next; event != null; event = event.next) {
+				if (before(event, earliest))
+					earliest = event;
+			}
+			return earliest;
+		}
+
+		return overflow.first();
+	}
+
+	/**
+	 * Return the slot of the nearest occupied future block, wrapping around
+	 * the wheel.
+	 */
+	private int nextFutureSlot() {
+		int slot = nextOccupied(futureOccupied, (int) (block + 1) & slotMask);
+		if (slot == -1)
+			slot = nextOccupied(futureOccupied, 0);
+
+		return slot;
+	}
+
+	/**
+	 * Make the next block current, moving its events to the first level and
+	 * taking newly reachable events out of the overflow set.
+	 */
+	private void nextBlock() {
+		block++;
+
+		int slot = (int) block & slotMask;
+		Event event = futureHeads[slot];
+
+		futureHeads[slot] = futureTails[slot] = null;
+		occupied(futureOccupied, slot, false);
+
+		while (event != null) {
+			Event next = event.next;
+			event.next = null;
+
+			append(heads, tails, occupied, (int) event.time & slotMask, event);
+			count++;
+			futureCount--;
+
+			event = next;
+		}
+
+		while (!overflow.isEmpty()
+				&& (overflow.first().time >> slotBits) < block + numSlots) {
+			Event early = overflow.pollFirst();
+
+			append(futureHeads, futureTails, futureOccupied,
+					(int) (early.time >> slotBits) & slotMask, early);
+			futureCount++;
+		}
+	}
+
+	private static void append(Event[] heads, Event[] tails, long[] occupied,
+			int slot, Event event) {
+		if (heads[slot] == null) {
+			heads[slot] = event;
+			occupied(occupied, slot, true);
+		} else {
+			tails[slot].next = event;
+		}
+
+		tails[slot] = event;
+	}
+
+	private static void remove(Event[] heads, Event[] tails, long[] occupied,
+			int slot, Event event) {
+		Event previous = null;
+		for (Event e = heads[slot]; e != event; e = e.next)
+			previous = e;
+
+		if (previous == null)
+			heads[slot] = event.next;
+		else
+			previous.next = event.next;
+
+		if (tails[slot] == event)
+			tails[slot] = previous;
+
+		if (heads[slot] == null)
+			occupied(occupied, slot, false);
+
+		event.next = null;
+	}
+
+	private static void occupied(long[] occupied, int slot, boolean value) {
+		if (value)
+			occupied[slot >> 6] |= 1L << slot;
+		else
+			occupied[slot >> 6] &= ~(1L << slot);
+	}
+
+	/**
+	 * Return the first occupied slot at or after <i>start</i>, or -1.
+	 */
+	private static int nextOccupied(long[] occupied, int start) {
+		int word = start >> 6;
+		long bits = occupied[word] & (-1L << start);
+
+		while (bits == 0) {
+			if (++word == occupied.length)
+				return -1;
+			bits = occupied[word];
+		}
+
+		return (word << 6) + Long.numberOfTrailingZeros(bits);
+	}
+
+	private static boolean before(Event a, Event b) {
+		return a.time < b.time || (a.time == b.time && a.id < b.id);
+	}
+
+	private static final Comparator<Event> order = new Comparator<Event>() {
+		public int compare(Event a, Event b) {
+			return before(a, b) ? -1 : (before(b, a) ? 1 : 0);
+		}
+	};
+
+	private static final int slotBits = 10;
+	private static final int numSlots = 1 << slotBits;
+	private static final int slotMask = numSlots - 1;
+
+	/** The block of time covered by the first level. */
+	private long block = 0;
+	/** The total number of events. */
+	private int size = 0;
+	/** The first event, or <tt>null</tt> if it must be looked up. */
+	private Event first = null;
+
+	/** One slot per tick of the current block. */
+	private Event[] heads = new Event[numSlots], tails = new Event[numSlots];
+	private long[] occupied = new long[numSlots / 64];
+	private int count = 0;
+
+	/** One slot per later block. */
+	private Event[] futureHeads = new Event[numSlots],
+			futureTails = new Event[numSlots];
+	private long[] futureOccupied = new long[numSlots / 64];
+	private int futureCount = 0;
+
+	/** Events too far in the future for the second level. */
+	private TreeSet<Event> overflow = new TreeSet<Event>(order);
+}
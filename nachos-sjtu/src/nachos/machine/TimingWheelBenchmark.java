@@ -0,0 +1,132 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Compares <tt>TimingWheel</tt> with the <tt>TreeSet</tt> that
+ * <tt>Interrupt</tt> used to keep its pending interrupts in. Each run keeps a
+ * fixed number of devices busy: whenever an event falls due it is removed and
+ * its device schedules another one a random delay later, as the timer, disk
+ * and console do. Both queues are fed the same events, and must remove them
+ * in the same order.
+ * 
+ * <p>
+ * Run with <tt>java nachos.machine.TimingWheelBenchmark [events]</tt>.
+ */
+public final class TimingWheelBenchmark {
+	private TimingWheelBenchmark() {
+	}
+
+	/**
+	 * Run the benchmark.
+	 * 
+	 * @param args
+	 *            optionally, the number of events to process in each run.
+	 */
+	public static void main(String[] args) {
+		int numEvents = (args.length > 0) ? Integer.parseInt(args[0]) : 2000000;
+
+		System.out.println("devices  max delay  TreeSet ns/event  "
+				+ "TimingWheel ns/event");
+
+		for (int numDevices : new int[] { 4, 16, 256 }) {
+			for (int maxDelay : new int[] { 600, 20000, 5000000 }) {
+				// warm up, then measure
+				run(false, numDevices, maxDelay, numEvents / 10);
+				run(true, numDevices, maxDelay, numEvents / 10);
+
+				long treeChecksum = run(false, numDevices, maxDelay, numEvents);
+				long treeTime = elapsed;
+				long wheelChecksum = run(true, numDevices, maxDelay, numEvents);
+				long wheelTime = elapsed;
+
+				Lib.assertTrue(treeChecksum == wheelChecksum,
+						"queues removed events in different orders");
+
+				System.out.println(pad(numDevices, 7) + pad(maxDelay, 11)
+						+ pad(treeTime / numEvents, 18)
+						+ pad(wheelTime / numEvents, 22));
+			}
+		}
+	}
+
+	/**
+	 * Process the specified number of events, setting <tt>elapsed</tt> to the
+	 * time taken in nanoseconds.
+	 * 
+	 * @return a checksum of the order in which events were removed.
+	 */
+	private static long run(boolean useWheel, int numDevices, int maxDelay,
+			int numEvents) {
+		Random random = new Random(0);
+		TreeSet<TimingWheel.Event> tree = new TreeSet<TimingWheel.Event>(
+				new Comparator<TimingWheel.Event>() {
+					public int compare(TimingWheel.Event a, TimingWheel.Event b) {
+						if (a.time != b.time)
+							return (a.time < b.time) ? -1 : 1;
+						else
+							return (a.id < b.id) ? -1 : (a.id > b.id ? 1 : 0);
+					}
+				});
+		TimingWheel wheel = new TimingWheel();
+
+		long now = 0, nextId = 0, checksum = 0;
+		long start = System.nanoTime();
+
+		for (int i = 0; i < numDevices; i++) {
+			TimingWheel.Event event = new TimingWheel.Event(now
+					+ delay(random, maxDelay), nextId++);
+			if (useWheel)
+				wheel.add(event);
+			else
+				tree.add(event);
+		}
+
+		for (int i = 0; i < numEvents; i++) {
+			TimingWheel.Event event;
+			if (useWheel) {
+				now = wheel.first().time;
+				wheel.advance(now);
+				event = wheel.removeFirst();
+			} else {
+				event = tree.pollFirst();
+				now = event.time;
+			}
+
+			checksum = checksum * 31 + event.id;
+
+			TimingWheel.Event next = new TimingWheel.Event(now
+					+ delay(random, maxDelay), nextId++);
+			if (useWheel)
+				wheel.add(next);
+			else
+				tree.add(next);
+		}
+
+		elapsed = System.nanoTime() - start;
+		return checksum;
+	}
+
+	/**
+	 * Return a delay between 1 and <i>maxDelay</i>, favouring short ones.
+	 */
+	private static int delay(Random random, int maxDelay) {
+		int delay = 1 + random.nextInt(maxDelay);
+		if (random.nextBoolean())
+			delay = 1 + delay / 8;
+		return delay;
+	}
+
+	private static String pad(long value, int width) {
+		String s = "" + value;
+		while (s.length() < width)
+			s = " " + s;
+		return s;
+	}
+
+	private static long elapsed;
+}
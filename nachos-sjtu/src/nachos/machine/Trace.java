@@ -0,0 +1,388 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import nachos.security.Privilege;
+
+/**
+ * A binary event tracer, cheap enough to leave on. Each category of events,
+ * named by a character as the debug flags are, has a ring buffer of
+ * preallocated records, and recording an event stores its id, the time and up
+ * to three integer arguments without allocating anything or printing. The
+ * rings keep the most recent events of each category, and are written to a
+ * file by <tt>dump()</tt>, which the machine calls when Nachos fails with an
+ * uncaught exception. <tt>java nachos.machine.Trace &lt;file&gt;</tt> prints
+ * a dump as text, with the events of all categories merged in time order.
+ * 
+ * <p>
+ * The categories to trace are listed by <tt>Trace.categories</tt>, so that
+ * <tt>Trace.categories = ipd</tt> traces interrupts, processor exceptions and
+ * the disk; <tt>+</tt> traces every category. A class defines its events
+ * once, with <tt>event()</tt>, and records them with <tt>record()</tt>.
+ * Events are only recorded by Nachos threads, which run one at a time, so
+ * <tt>record()</tt> is not synchronized, just as the statistics are not.
+ */
+public final class Trace {
+	private Trace() {
+	}
+
+	/**
+	 * Define a kind of event. The format is used when the dump is printed,
+	 * with the arguments of each event; a <tt>%s</tt> conversion prints the
+	 * string that the argument was returned for by <tt>intern()</tt>, and any
+	 * other conversion prints the argument as an integer.
+	 * 
+	 * @param category
+	 *            the category of the event.
+	 * @param format
+	 *            the format of the event, with a conversion for each argument.
+	 * @return the id of the event, to pass to <tt>record()</tt>.
+	 */
+	public static synchronized int event(char category, String format) {
+		Lib.assertTrue(category > 0 && category < 0x80 && category != '+');
+
+		formats.add(format);
+		eventCategories.append(category);
+		if (traceAll && rings[category] == null)
+			rings[category] = new Ring(capacity);
+
+		return (category << 16) | (formats.size() - 1);
+	}
+
+	/**
+	 * Return a number that stands for <i>s</i> in the arguments of an event.
+	 * 
+	 * @param s
+	 *            the string.
+	 * @return the same number for every string equal to <i>s</i>.
+	 */
+	public static synchronized int intern(String s) {
+		Integer n = stringNumbers.get(s);
+		if (n == null) {
+			n = strings.size();
+			strings.add(s);
+			stringNumbers.put(s, n);
+		}
+
+		return n;
+	}
+
+	/**
+	 * Test whether events of the category of <i>event</i> are recorded. Check
+	 * this before doing any work to compute the arguments of an event.
+	 * 
+	 * @param event
+	 *            an event id returned by <tt>event()</tt>.
+	 * @return <tt>true</tt> if the event would be recorded.
+	 */
+	public static boolean enabled(int event) {
+		return rings[event >>> 16] != null;
+	}
+
+	/**
+	 * Record an event with no arguments.
+	 * 
+	 * @param event
+	 *            an event id returned by <tt>event()</tt>.
+	 */
+	public static void record(int event) {
+		record(event, 0, 0, 0);
+	}
+
+	/**
+	 * Record an event with one argument.
+	 * 
+	 * @param event
+	 *            an event id returned by <tt>event()</tt>.
+	 * @param a
+	 *            the argument.
+	 */
+	public static void record(int event, int a) {
+		record(event, a, 0, 0);
+	}
+
+	/**
+	 * Record an event with two arguments.
+	 * 
+	 * @param event
+	 *            an event id returned by <tt>event()</tt>.
+	 * @param a
+	 *            the first argument.
+	 * @param b
+	 *            the second argument.
+	 */
+	public static void record(int event, int a, int b) {
+		record(event, a, b, 0);
+	}
+
+	/**
+	 * Record an event with three arguments.
+	 * 
+	 * @param event
+	 *            an event id returned by <tt>event()</tt>.
+	 * @param a
+	 *            the first argument.
+	 * @param b
+	 *            the second argument.
+	 * @param c
+	 *            the third argument.
+	 */
+	public static void record(int event, int a, int b, int c) {
+		Ring ring = rings[event >>> 16];
+		if (ring == null)
+			return;
+
+		long[] records = ring.records;
+		int i = ring.next;
+
+		records[i] = stats.totalTicks;
+		records[i + 1] = ((long) event << 32) | (a & 0xFFFFFFFFL);
+		records[i + 2] = ((long) b << 32) | (c & 0xFFFFFFFFL);
+
+		ring.next = (i + recordSize == records.length) ? 0 : i + recordSize;
+		ring.count++;
+	}
+
+	/**
+	 * Start tracing the categories listed by <tt>Trace.categories</tt>. Called
+	 * by the machine before it creates the devices.
+	 * 
+	 * @param privilege
+	 *            the privilege used to write the dump.
+	 * @param stats
+	 *            the statistics, to read the time from.
+	 */
+	static synchronized void init(Privilege privilege, Stats stats) {
+		Trace.privilege = privilege;
+		Trace.stats = stats;
+
+		String categories = Config.getString("Trace.categories", "");
+		capacity = Config.getInteger("Trace.capacity", 4096);
+		fileName = Config.getString("Trace.file", "nachos-trace.bin");
+
+		Lib.assertTrue(capacity > 0);
+
+		// with +, each category gets a ring once it has an event
+		traceAll = categories.indexOf('+') != -1;
+		if (traceAll)
+			categories += eventCategories;
+
+		for (char category = 1; category < 0x80; category++) {
+			if (category != '+' && categories.indexOf(category) != -1)
+				rings[category] = new Ring(capacity);
+		}
+	}
+
+	/**
+	 * Write the events recorded so far to <tt>Trace.file</tt>, if any
+	 * category is being traced.
+	 */
+	public static void dump() {
+		boolean tracing = false;
+		for (int i = 0; i < rings.length; i++)
+			tracing |= rings[i] != null;
+
+		if (!tracing)
+			return;
+
+		privilege.doPrivileged(new Runnable() {
+			public void run() {
+				try {
+					write(fileName);
+					System.out.println("Trace written to " + fileName);
+				} catch (IOException e) {
+					System.out.println("Can't write " + fileName + ": " + e);
+				}
+			}
+		});
+	}
+
+	private static synchronized void write(String fileName) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(fileName)));
+
+		try {
+			out.writeInt(magic);
+
+			out.writeInt(formats.size());
+			for (String format : formats)
+				out.writeUTF(format);
+
+			out.writeInt(strings.size());
+			for (String s : strings)
+				out.writeUTF(s);
+
+			for (char category = 0; category < rings.length; category++) {
+				Ring ring = rings[category];
+				if (ring == null)
+					continue;
+
+				int capacity = ring.records.length / recordSize;
+				int kept = (int) Math.min(ring.count, capacity);
+				int first = (ring.count > capacity) ? ring.next : 0;
+
+				out.writeChar(category);
+				out.writeLong(ring.count);
+				out.writeInt(kept);
+				for (int n = 0; n < kept * recordSize; n++)
+					out.writeLong(ring.records[(first + n)
+							% ring.records.length]);
+			}
+
+			out.writeChar(0);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Print a dump written by <tt>dump()</tt>.
+	 * 
+	 * @param args
+	 *            the name of the dump file.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("usage: java nachos.machine.Trace <trace file>");
+			System.exit(1);
+		}
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(args[0])));
+
+		List<String> formats = new ArrayList<String>();
+		List<String> strings = new ArrayList<String>();
+		List<long[]> records = new ArrayList<long[]>();
+
+		try {
+			if (in.readInt() != magic) {
+				System.err.println(args[0] + " is not a Nachos trace");
+				System.exit(1);
+			}
+
+			for (int n = in.readInt(); n > 0; n--)
+				formats.add(in.readUTF());
+			for (int n = in.readInt(); n > 0; n--)
+				strings.add(in.readUTF());
+
+			char category;
+			while ((category = in.readChar()) != 0) {
+				long count = in.readLong();
+				int kept = in.readInt();
+
+				System.out.println("category " + category + ": " + kept
+						+ " of " + count + " events kept");
+
+				for (int n = 0; n < kept; n++) {
+					long[] record = new long[recordSize];
+					for (int i = 0; i < recordSize; i++)
+						record[i] = in.readLong();
+					records.add(record);
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		// merge the categories by time; the sort is stable
+		Collections.sort(records, new Comparator<long[]>() {
+			public int compare(long[] r1, long[] r2) {
+				return Long.compare(r1[0], r2[0]);
+			}
+		});
+
+		for (long[] record : records) {
+			int event = (int) (record[1] >>> 32);
+			int[] values = { (int) record[1], (int) (record[2] >>> 32),
+					(int) record[2] };
+
+			System.out.println(String.format("%12d %c ", record[0],
+					(char) (event >>> 16))
+					+ format(formats.get(event & 0xFFFF), values, strings));
+		}
+	}
+
+	/**
+	 * Format the arguments of an event, looking up the strings for
+	 * <tt>%s</tt> conversions.
+	 */
+	private static String format(String format, int[] values,
+			List<String> strings) {
+		Object[] args = new Object[values.length];
+
+		int n = 0;
+		for (int i = 0; i < format.length(); i++) {
+			if (format.charAt(i) != '%')
+				continue;
+
+			// skip any flags and width
+			do {
+				i++;
+			} while (i < format.length()
+					&& "-#+ 0123456789.".indexOf(format.charAt(i)) != -1);
+
+			if (i == format.length() || format.charAt(i) == '%'
+					|| n == values.length)
+				continue;
+
+			if (format.charAt(i) == 's')
+				args[n] = (values[n] >= 0 && values[n] < strings.size()) ? strings
+						.get(values[n]) : "?";
+			else
+				args[n] = values[n];
+			n++;
+		}
+
+		return String.format(format, args);
+	}
+
+	private static class Ring {
+		Ring(int capacity) {
+			records = new long[capacity * recordSize];
+		}
+
+		/** The records, <tt>recordSize</tt> longs each. */
+		long[] records;
+		/** The index in <tt>records</tt> of the next record to write. */
+		int next = 0;
+		/** The number of events recorded, including any since overwritten. */
+		long count = 0;
+	}
+
+	/**
+	 * The longs in each record: the time, then the event id and the first
+	 * argument, then the second and third arguments.
+	 */
+	private static final int recordSize = 3;
+
+	/** The ring of each category being traced, indexed by category. */
+	private static Ring[] rings = new Ring[0x80];
+
+	private static List<String> formats = new ArrayList<String>();
+	/** The category of each event defined, in order. */
+	private static StringBuilder eventCategories = new StringBuilder();
+	private static List<String> strings = new ArrayList<String>();
+	private static HashMap<String, Integer> stringNumbers = new HashMap<String, Integer>();
+
+	private static boolean traceAll = false;
+	private static int capacity;
+
+	private static Privilege privilege;
+	private static Stats stats;
+	private static String fileName;
+
+	private static final int magic = 0x4E545243;
+}
@@ -0,0 +1,110 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+/**
+ * The superclass of the classes generated by <tt>BlockTranslator</tt>. Each
+ * subclass executes one basic block of MIPS code directly on the processor's
+ * registers, and calls back into the processor through the methods below for
+ * memory accesses and delayed loads.
+ * 
+ * <p>
+ * Generated classes are defined by their own class loader, and so are not in
+ * the same runtime package as the rest of the machine. This class is public
+ * only so that they can extend it.
+ */
+public abstract class TranslatedBlock {
+	/**
+	 * Allocate a new translated block.
+	 */
+	protected TranslatedBlock() {
+	}
+
+	/**
+	 * Execute the block. The caller guarantees that the PC is at the start of
+	 * the block and nextPC follows it. On return, the PC and nextPC registers
+	 * have been advanced past the last instruction executed. If a memory access
+	 * raises an exception, the PC register is left pointing at the faulting
+	 * instruction.
+	 * 
+	 * @param registers
+	 *            the processor's registers.
+	 * @return the number of instructions executed.
+	 */
+	public abstract int run(int[] registers) throws Processor.MipsException;
+
+	/**
+	 * Read from virtual memory, as a load instruction would.
+	 * 
+	 * @param vaddr
+	 *            the virtual address to read from.
+	 * @param size
+	 *            the number of bytes to read (1, 2, or 4).
+	 * @param signed
+	 *            <tt>true</tt> if the value should be sign-extended.
+	 * @return the value read.
+	 */
+	protected final int load(int vaddr, int size, boolean signed)
+			throws Processor.MipsException {
+		int value = processor.readMem(vaddr, size);
+
+		if (signed)
+			value = Lib.extend(value, 0, size * 8);
+
+		return value;
+	}
+
+	/**
+	 * Write to virtual memory, as a store instruction would.
+	 * 
+	 * @param vaddr
+	 *            the virtual address to write to.
+	 * @param size
+	 *            the number of bytes to write (1, 2, or 4).
+	 * @param value
+	 *            the value to store.
+	 */
+	protected final void store(int vaddr, int size, int value)
+			throws Processor.MipsException {
+		processor.writeMem(vaddr, size, value);
+	}
+
+	/**
+	 * Complete the delayed load in progress, if any.
+	 */
+	protected final void finishLoad() {
+		processor.finishLoad();
+	}
+
+	/**
+	 * Complete the delayed load in progress and start a new one of a whole
+	 * register.
+	 * 
+	 * @param target
+	 *            the target register of the new load.
+	 * @param value
+	 *            the value to be loaded into the target.
+	 */
+	protected final void delayedLoad(int target, int value) {
+		processor.delayedLoad(target, value, 0xFFFFFFFF);
+	}
+
+	/**
+	 * Test whether the code this block was translated from is unchanged. A
+	 * block must stop after a store that makes this <tt>false</tt>.
+	 * 
+	 * @return <tt>true</tt> if the block may keep executing.
+	 */
+	protected final boolean isValid() {
+		return valid;
+	}
+
+	/** The processor this block runs on. */
+	Processor processor;
+	/** The virtual address this block was translated for. */
+	int vaddr;
+	/** The number of instructions in this block. */
+	int length;
+	/** Cleared when the memory this block was translated from is written. */
+	boolean valid = true;
+}
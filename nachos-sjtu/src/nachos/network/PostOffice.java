@@ -63,10 +63,13 @@ public class PostOffice {
 	public MailMessage receive(int port) {
 		Lib.assertTrue(port >= 0 && port < queues.length);
 
-		Lib.debug(dbgNet, "waiting for mail on port " + port);
+		if (Lib.test(dbgNet))
+			System.out.println("waiting for mail on port " + port);
 
 		MailMessage mail = (MailMessage) queues[port].removeFirst();
 
+		Trace.record(evtReceive, port, mail.contents.length);
+
 		if (Lib.test(dbgNet))
 			System.out.println("got mail on port " + port + ": " + mail);
 
@@ -94,6 +97,9 @@ public class PostOffice {
 				System.out.println("delivering mail to port " + mail.dstPort
 						+ ": " + mail);
 
+			Trace.record(evtDeliver, mail.packet.srcLink, mail.dstPort,
+					mail.contents.length);
+
 			// atomically add message to the mailbox and wake a waiting thread
 			queues[mail.dstPort].add(mail);
 		}
@@ -116,6 +122,8 @@ public class PostOffice {
 
 		sendLock.acquire();
 
+		Trace.record(evtSend, mail.packet.dstLink, mail.dstPort,
+				mail.contents.length);
 		Machine.networkLink().send(mail.packet);
 		messageSent.P();
 
@@ -137,4 +145,11 @@ public class PostOffice {
 	private Lock sendLock;
 
 	private static final char dbgNet = 'n';
+
+	private static final int evtSend = Trace.event(dbgNet,
+			"send to link %d port %d, %d bytes");
+	private static final int evtDeliver = Trace.event(dbgNet,
+			"deliver from link %d to port %d, %d bytes");
+	private static final int evtReceive = Trace.event(dbgNet,
+			"receive on port %d, %d bytes");
 }
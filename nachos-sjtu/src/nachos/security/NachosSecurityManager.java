@@ -44,11 +44,37 @@ public class NachosSecurityManager extends SecurityManager {
 	}
 
 	/**
-	 * Install this security manager.
+	 * Host a machine that shares its JVM with other machines. A JVM can only
+	 * have one security manager, so a hosted one is never installed. Instead
+	 * of ending the JVM, <tt>exit()</tt> records the exit status, runs
+	 * <tt>onExit</tt> with privilege, and stops the calling thread. Must be
+	 * called before <tt>enable()</tt>.
+	 * 
+	 * @param onExit
+	 *            stops the rest of the machine.
+	 */
+	public void host(Runnable onExit) {
+		this.onExit = onExit;
+	}
+
+	/**
+	 * Return the status that a hosted machine exited with.
+	 * 
+	 * @return the status passed to <tt>exit()</tt>.
+	 */
+	public int getExitStatus() {
+		return exitStatus;
+	}
+
+	/**
+	 * Install this security manager, unless it is hosting a machine.
 	 */
 	public void enable() {
 		Lib.assertTrue(this != System.getSecurityManager());
 
+		if (onExit != null)
+			return;
+
 		doPrivileged(new Runnable() {
 			public void run() {
 				System.setSecurityManager(NachosSecurityManager.this);
@@ -61,7 +87,7 @@ public class NachosSecurityManager extends SecurityManager {
 			NachosSecurityManager.this.doPrivileged(action);
 		}
 
-		public Object doPrivileged(PrivilegedAction action) {
+		public <T> T doPrivileged(PrivilegedAction<T> action) {
 			return NachosSecurityManager.this.doPrivileged(action);
 		}
 
@@ -112,6 +138,13 @@ public class NachosSecurityManager extends SecurityManager {
 
 	private void exit(int exitStatus) {
 		forcePrivilege();
+
+		if (onExit != null) {
+			this.exitStatus = exitStatus;
+			onExit.run();
+			throw new ThreadDeath();
+		}
+
 		System.exit(exitStatus);
 	}
 
@@ -124,7 +157,7 @@ public class NachosSecurityManager extends SecurityManager {
 	}
 
 	private void doPrivileged(final Runnable action) {
-		doPrivileged(new PrivilegedAction() {
+		doPrivileged(new PrivilegedAction<Object>() {
 			public Object run() {
 				action.run();
 				return null;
@@ -132,8 +165,8 @@ public class NachosSecurityManager extends SecurityManager {
 		});
 	}
 
-	private Object doPrivileged(PrivilegedAction action) {
-		Object result = null;
+	private <T> T doPrivileged(PrivilegedAction<T> action) {
+		T result = null;
 		enablePrivilege();
 		try {
 			result = action.run();
@@ -311,6 +344,9 @@ public class NachosSecurityManager extends SecurityManager {
 	private File testDirectory;
 	private boolean fullySecure;
 
+	private Runnable onExit = null;
+	private int exitStatus;
+
 	private Thread privileged = null;
 	private int privilegeCount = 0;
 
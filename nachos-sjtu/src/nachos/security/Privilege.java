@@ -65,7 +65,7 @@ public abstract class Privilege {
 	 *            the action to perform.
 	 * @return the return value of the action.
 	 */
-	public abstract Object doPrivileged(PrivilegedAction action);
+	public abstract <T> T doPrivileged(PrivilegedAction<T> action);
 
 	/**
 	 * Perform the specified <tt>PrivilegedExceptionAction</tt> with privilege.
@@ -339,8 +339,11 @@ public class KThread {
 		KThread nextThread = readyQueue.nextThread();
 //		System.out.println("printing readyQueue");
 //		readyQueue.print();
-		if (nextThread == null)
+		if (nextThread == null) {
+			Machine.interrupt().idle(
+					readyQueue instanceof LotteryScheduler.LotteryQueue);
 			nextThread = idleThread;
+		}
 
 		nextThread.run();
 	}
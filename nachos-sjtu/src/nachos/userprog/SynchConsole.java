@@ -100,6 +100,30 @@ public class SynchConsole {
         writeLock.release();
     }
 
+    /**
+     * Send bytes in as few bursts as the console accepts, handing off to the
+     * send interrupt once per burst rather than once per byte. Blocks until
+     * all of them are sent, and keeps other writers from interleaving.
+     * 
+     * @param buf
+     *            the buffer holding the bytes to send.
+     * @param offset
+     *            the offset in the buffer of the first byte.
+     * @param length
+     *            the number of bytes to send.
+     */
+    public void writeBytes(byte[] buf, int offset, int length) {
+        writeLock.acquire();
+        while (length > 0) {
+            int sent = console.writeBytes(buf, offset, length);
+            writeWait.P();
+
+            offset += sent;
+            length -= sent;
+        }
+        writeLock.release();
+    }
+
     /**
      * Return an <tt>OpenFile</tt> that can be used to write this as a file.
      * 
@@ -153,8 +177,7 @@ public class SynchConsole {
             if (!canWrite)
                 return 0;
 
-            for (int i = 0; i < length; i++)
-                SynchConsole.this.writeByte(buf[offset + i]);
+            SynchConsole.this.writeBytes(buf, offset, length);
 
             return length;
         }
@@ -211,10 +211,8 @@ public class UserProcess {
         int addrOffset = UserKernel.offset(vaddr);
         int paddr = UserKernel.addr(te.ppn, addrOffset);
 
-        byte[] memory = Machine.processor().getMemory();
-
         int amount = Math.min(length, pageSize - addrOffset);
-        System.arraycopy(memory, paddr, data, offset, amount);
+        Machine.processor().readPhysical(paddr, data, offset, amount);
 
         if (amount < length)
             return amount
@@ -267,10 +265,8 @@ public class UserProcess {
         int addrOffset = UserKernel.offset(vaddr);
         int paddr = UserKernel.addr(te.ppn, addrOffset);
 
-        byte[] memory = Machine.processor().getMemory();
-
         int amount = Math.min(length, pageSize - addrOffset);
-        System.arraycopy(data, offset, memory, paddr, amount);
+        Machine.processor().writePhysical(paddr, data, offset, amount);
 
         if (amount < length)
             return amount
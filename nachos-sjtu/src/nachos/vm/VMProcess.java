@@ -8,6 +8,7 @@ import nachos.machine.CoffSection;
 import nachos.machine.Lib;
 import nachos.machine.Machine;
 import nachos.machine.Processor;
+import nachos.machine.Trace;
 import nachos.machine.TranslationEntry;
 import nachos.threads.Lock;
 import nachos.userprog.UserKernel;
@@ -83,6 +84,8 @@ public class VMProcess extends UserProcess {
 	protected void swapOut(int pid, int vpn) {
 		TranslationEntry entry = PageTable.getInstance().get(pid, vpn);
 
+		Trace.record(evtSwapOut, pid, vpn, entry.dirty ? 1 : 0);
+
 		Processor processor = Machine.processor();
 		for (int i = 0; i < processor.getTLBSize(); ++i) {
 			TranslationEntry tlbEntry = processor.readTLBEntry(i);
@@ -99,9 +102,10 @@ public class VMProcess extends UserProcess {
 		}
 
 		if (entry.dirty) {
-			byte[] memory = Machine.processor().getMemory();
-			Swap.getInstance().write(pid, entry.vpn, memory,
-					entry.ppn * pageSize);
+			byte[] page = new byte[pageSize];
+			Machine.processor().readPhysical(entry.ppn * pageSize, page, 0,
+					pageSize);
+			Swap.getInstance().write(pid, entry.vpn, page, 0);
 		}
 
 		entry.valid = false;
@@ -123,14 +127,16 @@ public class VMProcess extends UserProcess {
 	protected void swapIn(int ppn, int vpn) {
 		TranslationEntry entry = findPageTable(vpn);
 
+		Trace.record(evtSwapIn, pid, vpn, ppn);
+
 		boolean dirty = false;
 		if (lazySec.containsKey(new Integer(vpn))) {
 			loadLazySection(vpn, ppn);
 			dirty = true;
 		} else {
 			byte[] page = Swap.getInstance().read(pid, vpn);
-			byte[] memory = Machine.processor().getMemory();
-			System.arraycopy(page, 0, memory, ppn * pageSize, pageSize);
+			Machine.processor().writePhysical(ppn * pageSize, page, 0,
+					pageSize);
 
 			dirty = false;
 		}
@@ -168,7 +174,9 @@ public class VMProcess extends UserProcess {
 	 * Called by <tt>UThread.saveState()</tt>.
 	 */
 	public void saveState() {
-		Lib.debug(dbgVM, "save state " + pid);
+		if (Lib.test(dbgVM))
+			System.out.println("save state " + pid);
+		Trace.record(evtSaveState, pid);
 
 		Processor processor = Machine.processor();
 
@@ -186,7 +194,9 @@ public class VMProcess extends UserProcess {
 	 * <tt>UThread.restoreState()</tt>.
 	 */
 	public void restoreState() {
-		Lib.debug(dbgVM, "restore state " + pid);
+		if (Lib.test(dbgVM))
+			System.out.println("restore state " + pid);
+		Trace.record(evtRestoreState, pid);
 
 		Processor processor = Machine.processor();
 		for (int i = 0; i < processor.getTLBSize(); ++i) {
@@ -267,7 +277,7 @@ public class VMProcess extends UserProcess {
 			entry = translate(vaddr);
 		}
 
-		int killed = getTLBToBeKilled();
+		int killed = getTLBToBeKilled(UserKernel.vpn(vaddr));
 		killAndSubsTLBEntry(killed, entry);
 
 		return true;
@@ -277,12 +287,16 @@ public class VMProcess extends UserProcess {
 		return new TranslationEntry(0, 0, false, false, false, false);
 	}
 
-	protected int getTLBToBeKilled() {
-		for (int i = 0; i < Machine.processor().getTLBSize(); ++i)
-			if (Machine.processor().readTLBEntry(i).valid == false)
+	protected int getTLBToBeKilled(int vpn) {
+		Processor processor = Machine.processor();
+		int ways = processor.getTLBAssociativity();
+		int first = processor.getTLBSet(vpn) * ways;
+
+		for (int i = first; i < first + ways; ++i)
+			if (processor.readTLBEntry(i).valid == false)
 				return i;
 
-		return Lib.random(Machine.processor().getTLBSize());
+		return first + Lib.random(ways);
 	}
 
 	protected void killAndSubsTLBEntry(int index, TranslationEntry subs) {
@@ -301,4 +315,13 @@ public class VMProcess extends UserProcess {
 	protected static Lock vmLock = new Lock();
 	protected static final int pageSize = Processor.pageSize;
 	protected static final char dbgVM = 'v';
+
+	private static final int evtSaveState = Trace.event(dbgVM,
+			"save state %d");
+	private static final int evtRestoreState = Trace.event(dbgVM,
+			"restore state %d");
+	private static final int evtSwapIn = Trace.event(dbgVM,
+			"process %d swap in vpn %d to ppn %d");
+	private static final int evtSwapOut = Trace.event(dbgVM,
+			"process %d swap out vpn %d, dirty %d");
 }